@@ -41,13 +41,16 @@ import java.util.Properties;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.function.Supplier;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.lsp4j.ClientCapabilities;
 import org.eclipse.lsp4j.InitializeParams;
 import org.eclipse.lsp4j.InitializeResult;
+import org.eclipse.lsp4j.InitializedParams;
 import org.eclipse.lsp4j.ServerCapabilities;
 import org.eclipse.lsp4j.WorkspaceFolder;
 import org.eclipse.lsp4j.jsonrpc.Launcher;
@@ -59,6 +62,8 @@ import org.rascalmpl.library.util.PathConfig.RascalConfigMode;
 import org.rascalmpl.shell.ShellEvaluatorFactory;
 import org.rascalmpl.uri.URIResolverRegistry;
 import org.rascalmpl.uri.URIUtil;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileChangeEvent;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileChangeEvents;
 import org.rascalmpl.vscode.lsp.terminal.ITerminalIDEServer.LanguageParameter;
 import org.rascalmpl.vscode.lsp.uri.ProjectURIResolver;
 import org.rascalmpl.vscode.lsp.uri.TargetURIResolver;
@@ -129,6 +134,15 @@ public abstract class BaseLanguageServer {
         }
     }
 
+    /**
+     * Start a server for a single connection over the given streams, inside the current process.
+     * Exiting only ends this connection, it's used to drive a server without VS Code (see the latency benchmark).
+     * @return a future that completes when the connection is closed
+     */
+    public static Future<Void> startLanguageServer(IBaseTextDocumentService service, InputStream in, OutputStream out) {
+        return constructLSPClient(in, out, new ActualLanguageServer(() -> {}, service)).startListening();
+    }
+
     private static String getVersion() {
         try (InputStream prop = ActualLanguageServer.class.getClassLoader().getResourceAsStream("project.properties")) {
             Properties properties = new Properties();
@@ -163,6 +177,7 @@ public abstract class BaseLanguageServer {
         private IBaseLanguageClient client;
         private IDEServicesConfiguration ideServicesConfiguration;
         private List<WorkspaceFolder> workspaceFolders = new CopyOnWriteArrayList<>();
+        private volatile ClientCapabilities clientCapabilities = new ClientCapabilities();
 
         private ActualLanguageServer(Runnable onExit, IBaseTextDocumentService lspDocumentService) {
             this.onExit = onExit;
@@ -233,10 +248,18 @@ public abstract class BaseLanguageServer {
             lspDocumentService.initializeServerCapabilities(initializeResult.getCapabilities());
             logger.debug("Initialized LSP connection with capabilities: {}", initializeResult);
             this.workspaceFolders.addAll(params.getWorkspaceFolders());
+            if (params.getCapabilities() != null) {
+                this.clientCapabilities = params.getCapabilities();
+            }
 
             return CompletableFuture.completedFuture(initializeResult);
         }
 
+        @Override
+        public void initialized(InitializedParams params) {
+            lspDocumentService.initialized(clientCapabilities);
+        }
+
         @Override
         public CompletableFuture<Object> shutdown() {
             lspDocumentService.shutdown();
@@ -248,6 +271,14 @@ public abstract class BaseLanguageServer {
             onExit.run();
         }
 
+        @Override
+        public void onDidChangeFile(List<FileChangeEvent> events) {
+            IBaseLanguageClient currentClient = client;
+            if (currentClient != null) {
+                currentClient.onDidChangeFile(new FileChangeEvents(events));
+            }
+        }
+
         @Override
         public IBaseTextDocumentService getTextDocumentService() {
             return lspDocumentService;
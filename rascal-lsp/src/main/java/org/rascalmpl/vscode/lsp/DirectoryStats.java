@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.rascalmpl.vscode.lsp;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.rascalmpl.library.Prelude;
+import org.rascalmpl.uri.URIResolverRegistry;
+import org.rascalmpl.uri.URIUtil;
+import org.rascalmpl.values.IRascalValueFactory;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileType;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileWithStat;
+
+import io.usethesource.vallang.ISourceLocation;
+
+/**
+ * Lists a directory together with the stats of its children, for rascal/filesystem/readDirectoryWithStats.
+ * A logical location is resolved once, instead of once per child and per stat. Directories on the file system
+ * are read with a single directory stream, and a single attribute read per child.
+ */
+final class DirectoryStats {
+    private static final Logger logger = LogManager.getLogger(DirectoryStats.class);
+
+    private DirectoryStats() {}
+
+    static FileWithStat[] list(URIResolverRegistry reg, ISourceLocation loc) throws IOException {
+        ISourceLocation physical = reg.logicalToPhysical(loc);
+        List<FileWithStat> result = new ArrayList<>();
+        if ("file".equals(physical.getScheme())) {
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(Paths.get(physical.getURI()))) {
+                for (Path child : children) {
+                    result.add(stat(child));
+                }
+            }
+        }
+        else {
+            for (ISourceLocation child : reg.list(physical)) {
+                result.add(stat(reg, child));
+            }
+        }
+        return result.toArray(new FileWithStat[0]);
+    }
+
+    private static FileWithStat stat(Path child) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(child, BasicFileAttributes.class);
+        }
+        catch (IOException e) {
+            // a link to a file that doesn't exist (anymore)
+            attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        }
+        FileType type = attributes.isDirectory() ? FileType.Directory
+            : attributes.isRegularFile() ? FileType.File
+            : attributes.isSymbolicLink() ? FileType.SymbolicLink
+            : FileType.Unknown;
+        return new FileWithStat(child.getFileName().toString(), type, attributes.creationTime().toMillis(),
+            attributes.lastModifiedTime().toMillis(), attributes.size());
+    }
+
+    private static FileWithStat stat(URIResolverRegistry reg, ISourceLocation child) {
+        String name = URIUtil.getLocationName(child);
+        try {
+            boolean directory = reg.isDirectory(child);
+            return new FileWithStat(name, directory ? FileType.Directory : FileType.File,
+                reg.created(child), reg.lastModified(child), directory ? 0 : size(reg, child));
+        }
+        catch (IOException e) {
+            // one child we cannot stat should not hide the rest of the directory
+            logger.debug("Cannot stat {}", child, e);
+            return new FileWithStat(name, FileType.Unknown, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Size of a file, via a file channel if the scheme has them, otherwise the registry has to read the file
+     */
+    static long size(URIResolverRegistry reg, ISourceLocation loc) throws IOException {
+        if (reg.supportsReadableFileChannel(loc)) {
+            try (FileChannel channel = reg.getReadableFileChannel(loc)) {
+                return channel.size();
+            }
+        }
+        return Prelude.__getFileSize(IRascalValueFactory.getInstance(), loc).longValue();
+    }
+}
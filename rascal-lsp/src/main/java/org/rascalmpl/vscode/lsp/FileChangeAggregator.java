@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.rascalmpl.vscode.lsp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileChangeEvent;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileChangeType;
+
+import io.usethesource.vallang.ISourceLocation;
+
+/**
+ * Collects the changes of a single watch, and sends them in batches. A checkout or a build easily changes
+ * thousands of files, which would otherwise each become a separate notification.
+ *
+ * Changes are sent at most one window after the first change of a batch, in that window the changes of a path
+ * are merged into a single one, and a path that is created and deleted again is not reported at all.
+ * Paths that match one of the exclude globs of the watch (relative to the watched folder) are dropped.
+ */
+public class FileChangeAggregator {
+    private static final long DEFAULT_WINDOW_MILLIS = Long.getLong("rascal.lsp.watchWindowMillis", 200);
+    /** a batch larger than this is sent right away */
+    private static final int MAX_BATCH = 10_000;
+    private static final ScheduledExecutorService DEFAULT_TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread result = new Thread(r, "Rascal file change aggregator");
+        result.setDaemon(true);
+        return result;
+    });
+
+    private final String root;
+    private final List<Pattern> excludes = new ArrayList<>();
+    private final Consumer<List<FileChangeEvent>> target;
+    private final ScheduledExecutorService timer;
+    private final long window;
+
+    /** pending change per uri, in the order of their first change */
+    private Map<String, FileChangeType> pending = new LinkedHashMap<>();
+    private boolean scheduled = false;
+
+    public FileChangeAggregator(ISourceLocation root, String @Nullable[] excludes, Consumer<List<FileChangeEvent>> target) {
+        this(root, excludes, target, DEFAULT_TIMER, DEFAULT_WINDOW_MILLIS);
+    }
+
+    public FileChangeAggregator(ISourceLocation root, String @Nullable[] excludes, Consumer<List<FileChangeEvent>> target,
+        ScheduledExecutorService timer, long windowMillis) {
+        this.root = root.getPath().endsWith("/") ? root.getPath() : (root.getPath() + "/");
+        if (excludes != null) {
+            for (String glob : excludes) {
+                this.excludes.add(globToRegex(glob));
+            }
+        }
+        this.target = target;
+        this.timer = timer;
+        this.window = windowMillis;
+    }
+
+    public void changed(ISourceLocation loc, FileChangeType type) {
+        if (isExcluded(loc)) {
+            return;
+        }
+        boolean flushNow;
+        synchronized (this) {
+            String uri = loc.getURI().toString();
+            FileChangeType merged = merge(pending.get(uri), type);
+            if (merged == null) {
+                pending.remove(uri);
+            }
+            else {
+                pending.put(uri, merged);
+            }
+            flushNow = pending.size() >= MAX_BATCH;
+            if (!flushNow && !scheduled && !pending.isEmpty()) {
+                scheduled = true;
+                timer.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            timer.execute(this::flush);
+        }
+    }
+
+    /**
+     * @return the change that has the same effect as the previous change followed by the next one,
+     *         or null if together they have no effect
+     */
+    private static @Nullable FileChangeType merge(@Nullable FileChangeType previous, FileChangeType next) {
+        if (previous == null) {
+            return next;
+        }
+        switch (previous) {
+            case Created:
+                // still new for the client, unless it's gone again
+                return next == FileChangeType.Deleted ? null : FileChangeType.Created;
+            case Deleted:
+                // the client still has the old file, so it's replaced by the new one
+                return next == FileChangeType.Deleted ? FileChangeType.Deleted : FileChangeType.Changed;
+            default:
+                return next == FileChangeType.Deleted ? FileChangeType.Deleted : FileChangeType.Changed;
+        }
+    }
+
+    private void flush() {
+        Map<String, FileChangeType> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new LinkedHashMap<>();
+            scheduled = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<FileChangeEvent> events = new ArrayList<>(batch.size());
+        batch.forEach((uri, type) -> events.add(new FileChangeEvent(type, uri)));
+        target.accept(events);
+    }
+
+    private boolean isExcluded(ISourceLocation loc) {
+        if (excludes.isEmpty()) {
+            return false;
+        }
+        String path = loc.getPath();
+        String relative = path.startsWith(root) ? path.substring(root.length()) : path;
+        // a path is excluded if the path itself, or one of the folders it's in, matches
+        for (int end = relative.indexOf('/'); ; end = relative.indexOf('/', end + 1)) {
+            String prefix = end == -1 ? relative : relative.substring(0, end);
+            for (Pattern exclude : excludes) {
+                if (exclude.matcher(prefix).matches()) {
+                    return true;
+                }
+            }
+            if (end == -1) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Translate the glob patterns VS Code uses (**, *, ?, {a,b} and [...]) to a regular expression on relative paths
+     */
+    static Pattern globToRegex(String glob) {
+        StringBuilder result = new StringBuilder();
+        int braces = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        i++;
+                        if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                            // **/ also matches no folders at all
+                            i++;
+                            result.append("(?:.*/)?");
+                        }
+                        else {
+                            result.append(".*");
+                        }
+                    }
+                    else {
+                        result.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    result.append("[^/]");
+                    break;
+                case '{':
+                    braces++;
+                    result.append("(?:");
+                    break;
+                case '}':
+                    if (braces > 0) {
+                        braces--;
+                        result.append(')');
+                    }
+                    else {
+                        result.append("\\}");
+                    }
+                    break;
+                case ',':
+                    result.append(braces > 0 ? "|" : ",");
+                    break;
+                case '[': {
+                    int close = glob.indexOf(']', i + 1);
+                    if (close == -1) {
+                        result.append("\\[");
+                    }
+                    else {
+                        String set = glob.substring(i + 1, close);
+                        result.append('[').append(set.startsWith("!") ? ("^" + set.substring(1)) : set).append(']');
+                        i = close;
+                    }
+                    break;
+                }
+                default:
+                    result.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        // a leading / is relative to the watched folder as well
+        String regex = result.toString();
+        return Pattern.compile(regex.startsWith(Pattern.quote("/")) ? regex.substring(Pattern.quote("/").length()) : regex);
+    }
+}
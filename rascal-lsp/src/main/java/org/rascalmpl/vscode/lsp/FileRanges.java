@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.rascalmpl.vscode.lsp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.rascalmpl.uri.URIResolverRegistry;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileRangeContent;
+
+import io.usethesource.vallang.ISourceLocation;
+
+/**
+ * Reads a part of a file for the rascal/filesystem/readFileRange request, so only that part is ever in memory.
+ * Locations that support a file channel are read at the offset directly, other ones are streamed up to the offset.
+ */
+final class FileRanges {
+    /** upper bound of a single range, larger requests are truncated (the client continues at the returned end) */
+    static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+    private FileRanges() {}
+
+    static FileRangeContent read(URIResolverRegistry reg, ISourceLocation loc, long offset, int length) throws IOException {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid range: " + offset + " + " + length);
+        }
+        length = Math.min(length, MAX_LENGTH);
+        if (reg.supportsReadableFileChannel(loc)) {
+            try (FileChannel channel = reg.getReadableFileChannel(loc)) {
+                return read(channel, offset, length);
+            }
+        }
+        try (InputStream source = reg.getInputStream(loc)) {
+            return read(source, offset, length);
+        }
+    }
+
+    private static FileRangeContent read(FileChannel channel, long offset, int length) throws IOException {
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(length, size - offset)));
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                // the file shrunk while we were reading it
+                break;
+            }
+            position += read;
+        }
+        return new FileRangeContent(encode(buffer.array(), buffer.position()), size, position >= size);
+    }
+
+    private static FileRangeContent read(InputStream source, long offset, int length) throws IOException {
+        long start = skip(source, offset);
+        byte[] buffer = new byte[Math.min(length, 64 * 1024)];
+        int filled = 0;
+        int read = 0;
+        while (filled < length && (read = source.read(buffer, filled, buffer.length - filled)) >= 0) {
+            filled += read;
+            if (filled == buffer.length && filled < length) {
+                buffer = Arrays.copyOf(buffer, Math.min(length, buffer.length * 2));
+            }
+        }
+        boolean eof = read < 0 || source.read() < 0;
+        // without a channel we only know the size once we've reached the end
+        return new FileRangeContent(encode(buffer, filled), eof ? start + filled : -1, eof);
+    }
+
+    /**
+     * @return the amount of bytes skipped, which is less than the offset if the stream ended before it
+     */
+    private static long skip(InputStream source, long offset) throws IOException {
+        long skipped = 0;
+        while (skipped < offset) {
+            long step = source.skip(offset - skipped);
+            if (step <= 0) {
+                // skip may give up before the end, read a byte to find out if we are at the end
+                if (source.read() < 0) {
+                    break;
+                }
+                step = 1;
+            }
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    private static String encode(byte[] data, int length) {
+        return Base64.getEncoder().encodeToString(length == data.length ? data : Arrays.copyOf(data, length));
+    }
+}
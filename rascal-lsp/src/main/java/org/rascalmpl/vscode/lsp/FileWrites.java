@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.rascalmpl.vscode.lsp;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.UUID;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.rascalmpl.uri.URIResolverRegistry;
+import org.rascalmpl.uri.URIUtil;
+import org.rascalmpl.values.IRascalValueFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.usethesource.vallang.ISourceLocation;
+
+/**
+ * Chunked writes for the rascal/filesystem/openWrite, writeChunk, commitWrite and abortWrite requests.
+ * The chunks are decoded one by one into a temporary file next to the target, which replaces the target on commit.
+ * So a large write is never completely in memory, and a failed or aborted write leaves the original file alone.
+ *
+ * For (logical locations that resolve to) file locations the replace is an atomic rename,
+ * for other schemes it's a rename through the registry, which is as atomic as that scheme makes it.
+ * A symbolic link is written through (the file it points to is replaced), and the permissions, owner and
+ * ACL of the replaced file are copied to the new one.
+ */
+final class FileWrites {
+    private static final Logger logger = LogManager.getLogger(FileWrites.class);
+
+    /** writes that the client abandoned (for example because it was closed) are aborted after a while */
+    private static final Cache<String, Session> sessions = Caffeine.newBuilder()
+        .expireAfterAccess(Duration.ofMinutes(10))
+        .<String, Session>removalListener((handle, session, cause) -> {
+            if (session != null && cause.wasEvicted()) {
+                logger.debug("Aborting abandoned write to {}", session.target);
+                session.abort();
+            }
+        })
+        .build();
+
+    private FileWrites() {}
+
+    /**
+     * The checks of VS Code's FileSystemProvider.writeFile: the file (or its folder if it's created) has to exist,
+     * and it's only replaced if overwrite is allowed.
+     */
+    static void checkWritable(URIResolverRegistry reg, ISourceLocation loc, boolean create, boolean overwrite) throws IOException {
+        boolean fileExists = reg.exists(loc);
+        if (!fileExists && !create) {
+            throw new FileNotFoundException(loc.toString());
+        }
+
+        ISourceLocation parentFolder = URIUtil.getParentLocation(loc);
+        if (!reg.exists(parentFolder) && create) {
+            throw new FileNotFoundException(parentFolder.toString());
+        }
+
+        if (fileExists && create && !overwrite) {
+            throw new FileAlreadyExistsException(loc.toString());
+        }
+    }
+
+    /**
+     * @return handle for the next calls
+     */
+    static String open(URIResolverRegistry reg, ISourceLocation loc, boolean create, boolean overwrite) throws IOException {
+        checkWritable(reg, loc, create, overwrite);
+        String handle = UUID.randomUUID().toString();
+        sessions.put(handle, new Session(reg, loc, handle));
+        return handle;
+    }
+
+    /**
+     * Chunks have to be sent in order, the offset is used to detect it when they are not.
+     */
+    static void append(String handle, long offset, String content) throws IOException {
+        session(handle).append(offset, Base64.getDecoder().decode(content));
+    }
+
+    static void commit(String handle) throws IOException {
+        Session session = session(handle);
+        sessions.invalidate(handle);
+        session.commit();
+    }
+
+    static void abort(String handle) {
+        Session session = sessions.asMap().remove(handle);
+        if (session != null) {
+            session.abort();
+        }
+    }
+
+    private static Session session(String handle) throws IOException {
+        Session result = sessions.getIfPresent(handle);
+        if (result == null) {
+            throw new IOException("Unknown or expired write: " + handle);
+        }
+        return result;
+    }
+
+    private static final class Session {
+        private final URIResolverRegistry reg;
+        private final ISourceLocation target;
+        /** the temporary file in the same folder as the target, or null if the target isn't on the file system */
+        private final @Nullable Path tempFile;
+        /** the file that is replaced, with symbolic links resolved, or null if the target isn't on the file system */
+        private final @Nullable Path targetFile;
+        private final ISourceLocation tempLocation;
+        private final OutputStream output;
+        private long written = 0;
+
+        Session(URIResolverRegistry reg, ISourceLocation target, String handle) throws IOException {
+            this.reg = reg;
+            this.target = target;
+            ISourceLocation physical = reg.logicalToPhysical(target);
+            String tempName = "." + URIUtil.getLocationName(target) + "." + handle + ".tmp";
+            if ("file".equals(physical.getScheme())) {
+                targetFile = realPath(Paths.get(physical.getURI()));
+                // next to the actual file, so that the rename stays on the same file system
+                tempFile = targetFile.resolveSibling(tempName);
+                tempLocation = IRascalValueFactory.getInstance().sourceLocation(tempFile.toUri());
+                output = Files.newOutputStream(tempFile);
+            }
+            else {
+                tempFile = null;
+                targetFile = null;
+                tempLocation = URIUtil.getChildLocation(URIUtil.getParentLocation(target), tempName);
+                output = reg.getOutputStream(tempLocation, false);
+            }
+        }
+
+        synchronized void append(long offset, byte[] chunk) throws IOException {
+            if (offset != written) {
+                throw new IOException("Chunk for " + target + " at offset " + offset + ", expected " + written);
+            }
+            output.write(chunk);
+            written += chunk.length;
+        }
+
+        synchronized void commit() throws IOException {
+            try {
+                output.close();
+                if (tempFile != null && targetFile != null) {
+                    if (Files.exists(targetFile)) {
+                        if (!Files.isWritable(targetFile)) {
+                            throw new AccessDeniedException(targetFile.toString());
+                        }
+                        copyAttributes(targetFile, tempFile);
+                    }
+                    try {
+                        Files.move(tempFile, targetFile, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    catch (AtomicMoveNotSupportedException e) {
+                        Files.move(tempFile, targetFile, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                else {
+                    reg.rename(tempLocation, target, true);
+                }
+                StatCache.invalidate(target, false);
+            }
+            catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        private static Path realPath(Path file) throws IOException {
+            try {
+                return file.toRealPath();
+            }
+            catch (NoSuchFileException e) {
+                // a new file
+                return file;
+            }
+        }
+
+        /**
+         * A rename replaces the file with a fresh one, so the attributes of the original are copied first
+         */
+        private void copyAttributes(Path from, Path to) throws IOException {
+            PosixFileAttributeView fromPosix = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+            PosixFileAttributeView toPosix = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+            if (fromPosix != null && toPosix != null) {
+                PosixFileAttributes attributes = fromPosix.readAttributes();
+                toPosix.setPermissions(attributes.permissions());
+                try {
+                    toPosix.setGroup(attributes.group());
+                    toPosix.setOwner(attributes.owner());
+                }
+                catch (IOException e) {
+                    // only a privileged user can give away a file
+                    logger.debug("Cannot keep the owner of {}", target, e);
+                }
+            }
+            AclFileAttributeView fromAcl = Files.getFileAttributeView(from, AclFileAttributeView.class);
+            AclFileAttributeView toAcl = Files.getFileAttributeView(to, AclFileAttributeView.class);
+            if (fromAcl != null && toAcl != null) {
+                toAcl.setAcl(fromAcl.getAcl());
+            }
+        }
+
+        synchronized void abort() {
+            try {
+                output.close();
+            }
+            catch (IOException e) {
+                logger.debug("Closing aborted write to {} failed", target, e);
+            }
+            try {
+                if (tempFile != null) {
+                    Files.deleteIfExists(tempFile);
+                }
+                else if (reg.exists(tempLocation)) {
+                    reg.remove(tempLocation, false);
+                }
+            }
+            catch (IOException e) {
+                logger.debug("Cleaning up aborted write to {} failed", target, e);
+            }
+        }
+    }
+}
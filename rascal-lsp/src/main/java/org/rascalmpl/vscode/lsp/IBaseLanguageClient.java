@@ -28,6 +28,7 @@ package org.rascalmpl.vscode.lsp;
 
 import org.eclipse.lsp4j.jsonrpc.services.JsonNotification;
 import org.eclipse.lsp4j.services.LanguageClient;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileChangeEvents;
 import org.rascalmpl.vscode.lsp.terminal.ITerminalIDEServer.BrowseParameter;
 import org.rascalmpl.vscode.lsp.terminal.ITerminalIDEServer.LanguageParameter;
 
@@ -39,4 +40,7 @@ public interface IBaseLanguageClient extends LanguageClient {
     @JsonNotification("rascal/receiveRegisterLanguage")
     void receiveRegisterLanguage(LanguageParameter lang);
 
+    @JsonNotification("rascal/filesystem/onDidChangeFile")
+    void onDidChangeFile(FileChangeEvents changes);
+
 }
@@ -26,6 +26,7 @@
  */
 package org.rascalmpl.vscode.lsp;
 
+import org.eclipse.lsp4j.ClientCapabilities;
 import org.eclipse.lsp4j.ServerCapabilities;
 import org.eclipse.lsp4j.services.LanguageClient;
 import org.eclipse.lsp4j.services.TextDocumentService;
@@ -35,5 +36,7 @@ public interface IBaseTextDocumentService extends TextDocumentService {
     void initializeServerCapabilities(ServerCapabilities result);
     void shutdown();
     void connect(LanguageClient client);
+    /** the client is ready to receive requests and notifications */
+    void initialized(ClientCapabilities capabilities);
     void registerLanguage(LanguageParameter lang);
 }
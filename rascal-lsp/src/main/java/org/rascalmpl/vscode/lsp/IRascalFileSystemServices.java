@@ -26,28 +26,23 @@
  */
 package org.rascalmpl.vscode.lsp;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URISyntaxException;
-import java.nio.file.FileAlreadyExistsException;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
 import java.util.Set;
 import java.util.Base64.Encoder;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.stream.Stream;
 
-import org.eclipse.lsp4j.jsonrpc.services.JsonNotification;
 import org.eclipse.lsp4j.jsonrpc.services.JsonRequest;
-import org.rascalmpl.library.Prelude;
 import org.rascalmpl.uri.ISourceLocationWatcher.ISourceLocationChangeType;
-import org.rascalmpl.uri.ISourceLocationWatcher.ISourceLocationChanged;
 import org.rascalmpl.uri.URIResolverRegistry;
 import org.rascalmpl.uri.URIUtil;
-import org.rascalmpl.values.IRascalValueFactory;
 
 import io.usethesource.vallang.ISourceLocation;
 
@@ -59,10 +54,12 @@ public interface IRascalFileSystemServices {
         return CompletableFuture.runAsync(() -> {
             try {
                 ISourceLocation loc = params.getLocation();
+                FileChangeAggregator changes = new FileChangeAggregator(loc, params.getExcludes(), this::onDidChangeFile);
 
-                URIResolverRegistry.getInstance().watch(loc, params.isRecursive(), changed -> {
+                Watches.add(reg, loc, params.isRecursive(), changed -> {
+                    StatCache.invalidate(changed.getLocation(), changed.getChangeType() == ISourceLocationChangeType.DELETED);
                     try {
-                        onDidChangeFile(convertChangeEvent(changed));
+                        changes.changed(changed.getLocation(), convertFileChangeType(changed.getChangeType()));
                     } catch (IOException e) {
                         throw new RuntimeException(e);
                     }
@@ -73,9 +70,15 @@ public interface IRascalFileSystemServices {
         });
     }
 
-    static FileChangeEvent convertChangeEvent(ISourceLocationChanged changed) throws IOException {
-        return new FileChangeEvent(convertFileChangeType(changed.getChangeType()),
-                changed.getLocation().getURI().toASCIIString());
+    @JsonRequest("rascal/filesystem/unwatch")
+    default CompletableFuture<Void> unwatch(URIParameter params) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                Watches.remove(reg, params.getLocation());
+            } catch (IOException | URISyntaxException e) {
+                throw new CompletionException(e);
+            }
+        });
     }
 
     static FileChangeType convertFileChangeType(ISourceLocationChangeType changeType) throws IOException {
@@ -95,11 +98,7 @@ public interface IRascalFileSystemServices {
     default CompletableFuture<FileStat> stat(URIParameter uri) {
         return CompletableFuture.supplyAsync(() -> {
             try {
-                ISourceLocation loc = uri.getLocation();
-                return new FileStat(reg.isDirectory(loc) ? FileType.Directory : FileType.File, reg.created(loc),
-                        reg.lastModified(loc),
-                        reg.supportsReadableFileChannel(loc) ? reg.getReadableFileChannel(loc).size()
-                                : Prelude.__getFileSize(IRascalValueFactory.getInstance(), loc).longValue());
+                return StatCache.stat(reg, uri.getLocation());
             } catch (IOException | URISyntaxException e) {
                 throw new CompletionException(e);
             }
@@ -119,12 +118,27 @@ public interface IRascalFileSystemServices {
         });
     }
 
+    /**
+     * The children of a directory with their stats, so the explorer doesn't need a stat request per child
+     */
+    @JsonRequest("rascal/filesystem/readDirectoryWithStats")
+    default CompletableFuture<FileWithStat[]> readDirectoryWithStats(URIParameter uri) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return DirectoryStats.list(reg, uri.getLocation());
+            } catch (IOException | URISyntaxException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
     @JsonRequest("rascal/filesystem/createDirectory")
     default CompletableFuture<Void> createDirectory(URIParameter uri) {
         return CompletableFuture.runAsync(() -> {
             try {
                 ISourceLocation loc = uri.getLocation();
                 reg.mkDirectory(loc);
+                StatCache.invalidate(loc, false);
             } catch (IOException | URISyntaxException e) {
                 throw new CompletionException(e);
             }
@@ -161,40 +175,93 @@ public interface IRascalFileSystemServices {
         });
     }
 
+    /**
+     * Read a part of a file, so the client can page in large files instead of receiving them in one message.
+     * A range is at most 16MB, the client continues reading at the end of what it got
+     * until it reaches the end of the file.
+     */
+    @JsonRequest("rascal/filesystem/readFileRange")
+    default CompletableFuture<FileRangeContent> readFileRange(FileRangeParameters params) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return FileRanges.read(reg, params.getLocation(), params.getOffset(), params.getLength());
+            } catch (IOException | URISyntaxException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
     @JsonRequest("rascal/filesystem/writeFile")
     default CompletableFuture<Void> writeFile(WriteFileParameters params) {
         return CompletableFuture.runAsync(() -> {
             try {
                 ISourceLocation loc = params.getLocation();
-
-                boolean fileExists = reg.exists(loc);
-                if (!fileExists && !params.isCreate()) {
-                    throw new FileNotFoundException(loc.toString());
-                }
-
-                ISourceLocation parentFolder = URIUtil.getParentLocation(loc);
-                if (!reg.exists(parentFolder) && params.isCreate()) {
-                    throw new FileNotFoundException(parentFolder.toString());
-                }
-
-                if (fileExists && params.isCreate() && !params.isOverwrite()) {
-                    throw new FileAlreadyExistsException(loc.toString());
-                }
+                FileWrites.checkWritable(reg, loc, params.isCreate(), params.isOverwrite());
                 try (OutputStream target = reg.getOutputStream(loc, false)) {
                     target.write(Base64.getDecoder().decode(params.getContent()));
                 }
+                finally {
+                    StatCache.invalidate(loc, false);
+                }
             } catch (IOException | URISyntaxException e) {
                 throw new CompletionException(e);
             }
         });
     }
 
+    /**
+     * Start a chunked write, for files that are too large to send in a single writeFile request.
+     * The chunks are written to a temporary file, that replaces the target file on commit.
+     */
+    @JsonRequest("rascal/filesystem/openWrite")
+    default CompletableFuture<WriteHandle> openWrite(OpenWriteParameters params) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return new WriteHandle(FileWrites.open(reg, params.getLocation(), params.isCreate(), params.isOverwrite()));
+            } catch (IOException | URISyntaxException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Append a chunk to an open write, the next chunk should only be sent after this one is acknowledged.
+     */
+    @JsonRequest("rascal/filesystem/writeChunk")
+    default CompletableFuture<Void> writeChunk(WriteChunkParameters params) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                FileWrites.append(params.getHandle(), params.getOffset(), params.getContent());
+            } catch (IOException e) {
+                FileWrites.abort(params.getHandle());
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    @JsonRequest("rascal/filesystem/commitWrite")
+    default CompletableFuture<Void> commitWrite(WriteHandle params) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                FileWrites.commit(params.getHandle());
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    @JsonRequest("rascal/filesystem/abortWrite")
+    default CompletableFuture<Void> abortWrite(WriteHandle params) {
+        return CompletableFuture.runAsync(() -> FileWrites.abort(params.getHandle()));
+    }
+
     @JsonRequest("rascal/filesystem/delete")
     default CompletableFuture<Void> delete(DeleteParameters params) {
         return CompletableFuture.runAsync(() -> {
             try {
                 ISourceLocation loc = params.getLocation();
                 reg.remove(loc, params.isRecursive());
+                StatCache.invalidate(loc, true);
             } catch (IOException | URISyntaxException e) {
                 throw new CompletionException(e);
             }
@@ -208,6 +275,8 @@ public interface IRascalFileSystemServices {
                 ISourceLocation oldLoc = params.getOldLocation();
                 ISourceLocation newLoc = params.getNewLocation();
                 reg.rename(oldLoc, newLoc, params.isOverwrite());
+                StatCache.invalidate(oldLoc, true);
+                StatCache.invalidate(newLoc, true);
             } catch (IOException | URISyntaxException e) {
                 throw new CompletionException(e);
             }
@@ -223,8 +292,11 @@ public interface IRascalFileSystemServices {
                 .completedFuture(Stream.concat(inputs.stream(), logicals.stream()).toArray(String[]::new));
     }
 
-    @JsonNotification("rascal/filesystem/onDidChangeFile")
-    default void onDidChangeFile(FileChangeEvent event) { };
+    /**
+     * Called with a batch of changes of a watched folder, the server forwards these to the client
+     * (see {@link IBaseLanguageClient#onDidChangeFile})
+     */
+    default void onDidChangeFile(List<FileChangeEvent> events) { }
 
     public static class DeleteParameters {
         private final String uri;
@@ -310,6 +382,18 @@ public interface IRascalFileSystemServices {
         }
     }
 
+    public static class FileChangeEvents {
+        private final List<FileChangeEvent> changes;
+
+        public FileChangeEvents(List<FileChangeEvent> changes) {
+            this.changes = changes;
+        }
+
+        public List<FileChangeEvent> getChanges() {
+            return changes;
+        }
+    }
+
     public static enum FileChangeType {
         Changed(1), Created(2), Deleted(3);
 
@@ -337,6 +421,22 @@ public interface IRascalFileSystemServices {
             this.mtime = mtime;
             this.size = size;
         }
+
+        public FileType getType() {
+            return type;
+        }
+
+        public long getCtime() {
+            return ctime;
+        }
+
+        public long getMtime() {
+            return mtime;
+        }
+
+        public long getSize() {
+            return size;
+        }
     }
 
     public static enum FileType {
@@ -372,6 +472,42 @@ public interface IRascalFileSystemServices {
         }
     }
 
+    public static class FileWithStat {
+        private final String name;
+        private final FileType type;
+        private final long ctime;
+        private final long mtime;
+        private final long size;
+
+        public FileWithStat(String name, FileType type, long ctime, long mtime, long size) {
+            this.name = name;
+            this.type = type;
+            this.ctime = ctime;
+            this.mtime = mtime;
+            this.size = size;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public FileType getType() {
+            return type;
+        }
+
+        public long getCtime() {
+            return ctime;
+        }
+
+        public long getMtime() {
+            return mtime;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
     public static class LocationContent {
         private String content;
 
@@ -384,6 +520,123 @@ public interface IRascalFileSystemServices {
         }
     }
 
+    public static class FileRangeParameters {
+        private final String uri;
+        private final long offset;
+        private final int length;
+
+        public FileRangeParameters(String uri, long offset, int length) {
+            this.uri = uri;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public ISourceLocation getLocation() throws URISyntaxException {
+            return new URIParameter(uri).getLocation();
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    public static class FileRangeContent {
+        private final String content;
+        private final long size;
+        private final boolean eof;
+
+        /**
+         * @param content base64 encoded bytes of the range
+         * @param size    size of the whole file, or -1 if it's not known (yet)
+         * @param eof     if the range reaches the end of the file
+         */
+        public FileRangeContent(String content, long size, boolean eof) {
+            this.content = content;
+            this.size = size;
+            this.eof = eof;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isEof() {
+            return eof;
+        }
+    }
+
+    public static class OpenWriteParameters {
+        private final String uri;
+        private final boolean create;
+        private final boolean overwrite;
+
+        public OpenWriteParameters(String uri, boolean create, boolean overwrite) {
+            this.uri = uri;
+            this.create = create;
+            this.overwrite = overwrite;
+        }
+
+        public ISourceLocation getLocation() throws URISyntaxException {
+            return new URIParameter(uri).getLocation();
+        }
+
+        public boolean isCreate() {
+            return create;
+        }
+
+        public boolean isOverwrite() {
+            return overwrite;
+        }
+    }
+
+    public static class WriteHandle {
+        private final String handle;
+
+        public WriteHandle(String handle) {
+            this.handle = handle;
+        }
+
+        public String getHandle() {
+            return handle;
+        }
+    }
+
+    public static class WriteChunkParameters {
+        private final String handle;
+        private final long offset;
+        private final String content;
+
+        /**
+         * @param offset  amount of bytes written before this chunk
+         * @param content base64 encoded bytes of the chunk
+         */
+        public WriteChunkParameters(String handle, long offset, String content) {
+            this.handle = handle;
+            this.offset = offset;
+            this.content = content;
+        }
+
+        public String getHandle() {
+            return handle;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public String getContent() {
+            return content;
+        }
+    }
+
     public static class URIParameter {
         private String uri;
 
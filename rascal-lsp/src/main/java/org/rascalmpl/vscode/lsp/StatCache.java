@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.rascalmpl.vscode.lsp;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.rascalmpl.uri.URIResolverRegistry;
+import org.rascalmpl.uri.URIUtil;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileStat;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileType;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.usethesource.vallang.ISourceLocation;
+
+/**
+ * Caches the results of rascal/filesystem/stat, which VS Code requests very often.
+ *
+ * Only locations that are watched (see rascal/filesystem/watch) are cached, since the watch callbacks are what
+ * invalidate the entries, together with the changes made through the file system services themselves.
+ * Other locations are stat-ed every time.
+ */
+final class StatCache {
+    private static final Logger logger = LogManager.getLogger(StatCache.class);
+    private static final int MAX_ENTRIES = Integer.getInteger("rascal.lsp.statCacheSize", 10_000);
+    /** the hit rate is logged every so many lookups */
+    private static final int REPORT_INTERVAL = 1_000;
+
+    private static final Cache<ISourceLocation, FileStat> cache = Caffeine.newBuilder()
+        .maximumSize(MAX_ENTRIES)
+        .recordStats()
+        .build();
+    /**
+     * The uris of the cached locations, sorted so that everything inside a folder is a single range.
+     * Entries that the cache evicted stay behind until they're pruned or invalidated, which is harmless.
+     * Guarded by itself, as are the changes to the cache.
+     */
+    private static final NavigableMap<String, ISourceLocation> keys = new TreeMap<>();
+    /** number of watches per watched folder, and per folder that is watched recursively */
+    private static final Map<String, Integer> watched = new ConcurrentHashMap<>();
+    private static final Map<String, Integer> watchedRecursively = new ConcurrentHashMap<>();
+    /** changes whenever entries are invalidated, so a stat that raced with a change isn't stored */
+    private static final AtomicLong generation = new AtomicLong();
+    private static final AtomicLong lookups = new AtomicLong();
+
+    private StatCache() {}
+
+    static void watching(ISourceLocation folder, boolean recursive) {
+        watched.merge(folder.getURI().toString(), 1, Integer::sum);
+        if (recursive) {
+            watchedRecursively.merge(asFolder(folder), 1, Integer::sum);
+        }
+    }
+
+    /**
+     * A watch was removed, if it was the last one on the folder its entries aren't kept up to date anymore
+     */
+    static void unwatching(ISourceLocation folder, boolean recursive) {
+        watched.computeIfPresent(folder.getURI().toString(), (k, count) -> count == 1 ? null : (count - 1));
+        if (recursive) {
+            watchedRecursively.computeIfPresent(asFolder(folder), (k, count) -> count == 1 ? null : (count - 1));
+        }
+        invalidate(folder, true);
+    }
+
+    static FileStat stat(URIResolverRegistry reg, ISourceLocation loc) throws IOException {
+        if (!isWatched(loc)) {
+            return compute(reg, loc);
+        }
+        FileStat result = cache.getIfPresent(loc);
+        if (result == null) {
+            long before = generation.get();
+            result = compute(reg, loc);
+            store(loc, result, before);
+        }
+        if (lookups.incrementAndGet() % REPORT_INTERVAL == 0) {
+            logger.debug("Stat cache: {} entries, {}", cache.estimatedSize(), cache.stats());
+        }
+        return result;
+    }
+
+    private static void store(ISourceLocation loc, FileStat stat, long computedIn) {
+        synchronized (keys) {
+            if (generation.get() != computedIn) {
+                return;
+            }
+            if (keys.size() > 2 * MAX_ENTRIES) {
+                // forget the uris of evicted entries
+                keys.values().retainAll(cache.asMap().keySet());
+            }
+            keys.put(loc.getURI().toString(), loc);
+            cache.put(loc, stat);
+        }
+    }
+
+    /**
+     * Drop the stats of a location that changed, and of its parent, since that changed as well.
+     * @param withChildren also drop everything inside the location, for example when a folder was removed
+     */
+    static void invalidate(ISourceLocation loc, boolean withChildren) {
+        synchronized (keys) {
+            generation.incrementAndGet();
+            ISourceLocation parent = URIUtil.getParentLocation(loc);
+            keys.remove(loc.getURI().toString());
+            keys.remove(parent.getURI().toString());
+            cache.invalidate(loc);
+            cache.invalidate(parent);
+            if (withChildren) {
+                String folder = asFolder(loc);
+                // all uris that start with the folder uri
+                Map<String, ISourceLocation> children = keys.subMap(folder, true, folder + Character.MAX_VALUE, false);
+                cache.invalidateAll(children.values());
+                children.clear();
+            }
+        }
+    }
+
+    private static String asFolder(ISourceLocation loc) {
+        String uri = loc.getURI().toString();
+        return uri.endsWith("/") ? uri : (uri + "/");
+    }
+
+    private static boolean isWatched(ISourceLocation loc) {
+        String uri = loc.getURI().toString();
+        if (watched.containsKey(uri) || watched.containsKey(URIUtil.getParentLocation(loc).getURI().toString())) {
+            return true;
+        }
+        for (String folder : watchedRecursively.keySet()) {
+            if (uri.startsWith(folder)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static FileStat compute(URIResolverRegistry reg, ISourceLocation loc) throws IOException {
+        boolean directory = reg.isDirectory(loc);
+        return new FileStat(directory ? FileType.Directory : FileType.File, reg.created(loc), reg.lastModified(loc),
+            directory ? 0 : DirectoryStats.size(reg, loc));
+    }
+}
@@ -26,57 +26,316 @@
  */
 package org.rascalmpl.vscode.lsp;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
 import org.rascalmpl.values.parsetrees.ITree;
+import org.rascalmpl.vscode.lsp.util.Rope;
+import org.rascalmpl.vscode.lsp.util.concurrent.InterruptibleFuture;
 
 import io.usethesource.vallang.ISourceLocation;
 
 /**
  * TextDocumentState encapsulates the current contents of every open file editor, 
  * and the corresponding latest parse tree that belongs to it.
+ * The contents are kept in a {@link Rope}, so incremental changes from the client
+ * are applied without copying the whole file.
  * It is parametrized by the parser that must be used to map the string
  * contents to a tree. All other TextDocumentServices depend on this information. 
  * 
+ * Parsing after an update is debounced: a parse only starts after a quiet period without
+ * new updates, and a running parse is interrupted (if the parser supports that) as soon as newer
+ * contents arrive. The future returned by {@link #getCurrentTreeAsync()} always resolves to
+ * the tree of the newest contents.
+ * 
+ * When many files are opened at once (like when a session is restored), the first parse can be deferred to
+ * a bounded executor. It is started right away as soon as the tree is requested via {@link #getCurrentTreeAsync()},
+ * so the files that the editor is showing are parsed first.
+ * 
  * Objects of this class are used by the implementations of RascalTextDocumentService
  * and ParametricTextDocumentService. 
  */
 public class TextDocumentState {
-    private final BiFunction<ISourceLocation, String, CompletableFuture<ITree>> parser;
+    /** quiet period in milliseconds before a parse is started after a change */
+    public static final long DEFAULT_PARSE_DELAY = Long.getLong("rascal.lsp.parseDelay", 50L);
+    /** after this many quiet periods a change doesn't postpone a scheduled parse anymore, so that continuous typing still gets a tree */
+    private static final int MAX_POSTPONE_FACTOR = 10;
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Parse scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final BiFunction<ISourceLocation, Rope, InterruptibleFuture<ITree>> parser;
+    private final long parseDelay;
 
     private final ISourceLocation file;
-    private volatile String currentContent;
+    private volatile Rope currentContent;
     @SuppressWarnings("java:S3077") // we are use volatile correctly
     private volatile @MonotonicNonNull ITree lastFullTree;
     @SuppressWarnings("java:S3077") // we are use volatile correctly
     private volatile CompletableFuture<ITree> currentTree;
 
-    public TextDocumentState(BiFunction<ISourceLocation, String, CompletableFuture<ITree>> parser, ISourceLocation file, String content) {
+    // the fields below are guarded by this
+    private long version = 0;
+    private long lastFullTreeVersion = -1;
+    private long deliveredVersion = -1;
+    private @Nullable ScheduledFuture<?> scheduledParse;
+    private long scheduledSince;
+    private @Nullable InterruptibleFuture<ITree> runningParse;
+    /** the first parse is waiting in the deferred executor, volatile so that it can be checked without the lock */
+    private volatile boolean firstParsePending = false;
+
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong parsesStarted = new AtomicLong();
+    private final AtomicLong parsesCoalesced = new AtomicLong();
+    private final AtomicLong parsesCancelled = new AtomicLong();
+
+    public TextDocumentState(BiFunction<ISourceLocation, Rope, InterruptibleFuture<ITree>> parser, ISourceLocation file, String content) {
+        this(parser, file, content, DEFAULT_PARSE_DELAY);
+    }
+
+    public TextDocumentState(BiFunction<ISourceLocation, Rope, InterruptibleFuture<ITree>> parser, ISourceLocation file, String content, long parseDelay) {
+        this(parser, file, content, parseDelay, null);
+    }
+
+    /**
+     * @param deferredFirstParse if not null, the first parse runs on this executor, unless the tree is requested earlier
+     */
+    public TextDocumentState(BiFunction<ISourceLocation, Rope, InterruptibleFuture<ITree>> parser, ISourceLocation file, String content, long parseDelay, @Nullable Executor deferredFirstParse) {
         this.parser = parser;
         this.file = file;
-        this.currentContent = content;
-        currentTree = newContents(content);
+        this.parseDelay = parseDelay;
+        this.currentContent = Rope.of(content);
+        this.currentTree = new CompletableFuture<>();
+        if (deferredFirstParse == null) {
+            synchronized (this) {
+                // the first parse of a freshly opened file should not wait
+                startParse();
+            }
+        }
+        else {
+            firstParsePending = true;
+            deferredFirstParse.execute(this::deferredFirstParse);
+        }
+    }
+
+    private void deferredFirstParse() {
+        InterruptibleFuture<ITree> parse;
+        synchronized (this) {
+            if (!firstParsePending) {
+                // the tree was requested (or the contents changed) before it was our turn
+                return;
+            }
+            firstParsePending = false;
+            parse = startParse();
+        }
+        // keep the executor busy until the parse is done, so that the amount of parallel parses stays bounded
+        parse.get().handle((t, e) -> null).join();
+    }
+
+    private void startFirstParseNow() {
+        synchronized (this) {
+            if (firstParsePending) {
+                firstParsePending = false;
+                startParse();
+            }
+        }
+    }
+
+    /**
+     * Listens to every change of the contents, for example to patch data derived from the lines of the document
+     */
+    @FunctionalInterface
+    public interface ChangeListener {
+        /**
+         * Lines startLine up to and including oldEndLine of before are replaced by
+         * lines startLine up to and including newEndLine of after.
+         * Called in order of the changes, while the document state is locked, and after the contents
+         * of the last change are the current contents, so that a reader of the current contents never
+         * sees a listener that is ahead of them.
+         */
+        void linesChanged(ISourceLocation file, Rope before, Rope after, int startLine, int oldEndLine, int newEndLine);
+    }
+
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized CompletableFuture<ITree> update(String text) {
+        List<Runnable> notifications = new ArrayList<>(1);
+        return update(replaced(currentContent, Rope.of(text), notifications), notifications);
+    }
+
+    /**
+     * Apply a list of (incremental) content changes in order, a change without a range replaces the whole document
+     */
+    public synchronized CompletableFuture<ITree> update(List<TextDocumentContentChangeEvent> changes) {
+        Rope result = currentContent;
+        List<Runnable> notifications = new ArrayList<>(changes.size());
+        for (TextDocumentContentChangeEvent change : changes) {
+            Range range = change.getRange();
+            if (range == null) {
+                result = replaced(result, Rope.of(change.getText()), notifications);
+            }
+            else {
+                String text = change.getText();
+                int start = result.offsetAt(range.getStart().getLine(), range.getStart().getCharacter());
+                int end = result.offsetAt(range.getEnd().getLine(), range.getEnd().getCharacter());
+                Rope before = result;
+                result = result.replace(start, Math.max(start, end), text);
+                // offsetAt clamps lines beyond the end to the last line, so we do the same
+                int startLine = Math.min(range.getStart().getLine(), before.lineCount() - 1);
+                int oldEndLine = Math.max(startLine, Math.min(range.getEnd().getLine(), before.lineCount() - 1));
+                Rope after = result;
+                int newEndLine = startLine + countLineBreaks(text);
+                notifications.add(() -> notifyListeners(before, after, startLine, oldEndLine, newEndLine));
+            }
+        }
+        return update(result, notifications);
+    }
+
+    private Rope replaced(Rope before, Rope after, List<Runnable> notifications) {
+        notifications.add(() -> notifyListeners(before, after, 0, before.lineCount() - 1, after.lineCount() - 1));
+        return after;
     }
 
-    public CompletableFuture<ITree> update(String text) {
+    private void notifyListeners(Rope before, Rope after, int startLine, int oldEndLine, int newEndLine) {
+        for (ChangeListener l : listeners) {
+            l.linesChanged(file, before, after, startLine, oldEndLine, newEndLine);
+        }
+    }
+
+    private static int countLineBreaks(String text) {
+        int result = 0;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+            result++;
+        }
+        return result;
+    }
+
+    /**
+     * Register new contents, and schedule a parse for it.
+     * @return a future for the tree of the newest contents, this is the same future as long as
+     *  the previous contents haven't been parsed yet.
+     */
+    private synchronized CompletableFuture<ITree> update(Rope text, List<Runnable> notifications) {
+        // the file is being edited, so a deferred first parse is replaced by the regular one
+        firstParsePending = false;
+        if (deliveredVersion == version) {
+            // the current future is (being) completed with the tree of the previous contents
+            currentTree = new CompletableFuture<>();
+        }
         currentContent = text;
-        currentTree = newContents(text);
+        version++;
+        notifications.forEach(Runnable::run);
+
+        InterruptibleFuture<ITree> running = runningParse;
+        if (running != null) {
+            // the running parse is out of date, its result will be dropped
+            runningParse = null;
+            running.interrupt();
+            // not every parser can be stopped once it runs, so only count the parses that didn't produce a tree
+            running.get().whenComplete((r, t) -> {
+                if (r == null) {
+                    parsesCancelled.incrementAndGet();
+                }
+            });
+        }
+
+        ScheduledFuture<?> scheduled = scheduledParse;
+        if (scheduled != null) {
+            parsesCoalesced.incrementAndGet();
+            boolean postponedTooLong = System.nanoTime() - scheduledSince > TimeUnit.MILLISECONDS.toNanos(parseDelay * MAX_POSTPONE_FACTOR);
+            if (postponedTooLong || !scheduled.cancel(false)) {
+                // the scheduled parse will pick up these contents when it runs
+                return currentTree;
+            }
+        }
+        else {
+            scheduledSince = System.nanoTime();
+        }
+
+        if (parseDelay <= 0) {
+            scheduledParse = null;
+            startParse();
+        }
+        else {
+            scheduledParse = scheduler.schedule(this::scheduledParse, parseDelay, TimeUnit.MILLISECONDS);
+        }
         return currentTree;
     }
 
-    @SuppressWarnings("java:S1181") // we want to catch all Java exceptions from the parser
-    private CompletableFuture<ITree> newContents(String contents) {
-        return parser.apply(file, contents)
-            .whenComplete((r, t) -> { 
-                if (r != null) { 
-                    lastFullTree = r; 
-                } 
-            });
+    private synchronized void scheduledParse() {
+        scheduledParse = null;
+        startParse();
+    }
+
+    /**
+     * Start parsing the current contents, the caller should hold the lock on this.
+     */
+    private InterruptibleFuture<ITree> startParse() {
+        final long parseVersion = version;
+        final CompletableFuture<ITree> target = currentTree;
+        parsesStarted.incrementAndGet();
+        InterruptibleFuture<ITree> parse = parser.apply(file, currentContent);
+        runningParse = parse;
+        parse.get().whenComplete((r, t) -> parseFinished(parseVersion, target, r, t));
+        return parse;
+    }
+
+    private void parseFinished(long parseVersion, CompletableFuture<ITree> target, @Nullable ITree tree, @Nullable Throwable error) {
+        synchronized (this) {
+            if (tree != null && parseVersion > lastFullTreeVersion) {
+                lastFullTree = tree;
+                lastFullTreeVersion = parseVersion;
+            }
+            if (parseVersion != version) {
+                // a newer version is parsed (or will be), which will complete the target
+                return;
+            }
+            runningParse = null;
+            deliveredVersion = parseVersion;
+        }
+        // complete outside of the lock, as the dependent actions run on this thread
+        if (error != null) {
+            target.completeExceptionally(error);
+        }
+        else {
+            target.complete(tree);
+        }
     }
 
+    /**
+     * The tree is needed for a request of the client, so a deferred first parse is started right away
+     */
     public CompletableFuture<ITree> getCurrentTreeAsync() {
+        if (firstParsePending) {
+            startFirstParseNow();
+        }
+        return currentTree;
+    }
+
+    /**
+     * The tree of the current contents, without starting a deferred first parse,
+     * for background work like reporting parse errors or calculating a summary
+     */
+    public CompletableFuture<ITree> getCurrentTreeInBackground() {
         return currentTree;
     }
 
@@ -88,7 +347,29 @@ public class TextDocumentState {
         return file;
     }
 
+    /**
+     * Note: this copies the whole buffer, use {@link #getCurrentBuffer()} if a CharSequence is enough
+     */
     public String getCurrentContent() {
+        return currentContent.toString();
+    }
+
+    public Rope getCurrentBuffer() {
         return currentContent;
     }
-}
\ No newline at end of file
+
+    /** number of parses that were actually started */
+    public long getParsesStarted() {
+        return parsesStarted.get();
+    }
+
+    /** number of updates that were merged into an already scheduled parse */
+    public long getParsesCoalesced() {
+        return parsesCoalesced.get();
+    }
+
+    /** number of parses that were interrupted because newer contents arrived, and stopped without a tree */
+    public long getParsesCancelled() {
+        return parsesCancelled.get();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.rascalmpl.vscode.lsp;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.rascalmpl.uri.ISourceLocationWatcher.ISourceLocationChanged;
+import org.rascalmpl.uri.URIResolverRegistry;
+
+import io.usethesource.vallang.ISourceLocation;
+
+/**
+ * The watches of rascal/filesystem/watch, so that rascal/filesystem/unwatch can remove them again.
+ *
+ * The client only sends the uri when it disposes a watch, so of multiple watches on the same uri the latest is removed.
+ */
+final class Watches {
+    /** per uri, the watches on it, latest first (the deques are guarded by the map) */
+    private static final Map<String, Deque<Watch>> active = new ConcurrentHashMap<>();
+
+    private Watches() {}
+
+    static void add(URIResolverRegistry reg, ISourceLocation loc, boolean recursive, Consumer<ISourceLocationChanged> callback) throws IOException {
+        reg.watch(loc, recursive, callback);
+        StatCache.watching(loc, recursive);
+        active.compute(loc.getURI().toString(), (uri, watches) -> {
+            Deque<Watch> result = watches == null ? new ArrayDeque<>() : watches;
+            result.push(new Watch(recursive, callback));
+            return result;
+        });
+    }
+
+    static void remove(URIResolverRegistry reg, ISourceLocation loc) throws IOException {
+        Watch[] removed = new Watch[1];
+        active.computeIfPresent(loc.getURI().toString(), (uri, watches) -> {
+            removed[0] = watches.poll();
+            return watches.isEmpty() ? null : watches;
+        });
+        Watch watch = removed[0];
+        if (watch != null) {
+            reg.unwatch(loc, watch.recursive, watch.callback);
+            StatCache.unwatching(loc, watch.recursive);
+        }
+    }
+
+    private static final class Watch {
+        private final boolean recursive;
+        private final Consumer<ISourceLocationChanged> callback;
+
+        Watch(boolean recursive, Consumer<ISourceLocationChanged> callback) {
+            this.recursive = recursive;
+            this.callback = callback;
+        }
+    }
+}
@@ -26,16 +26,16 @@
  */
 package org.rascalmpl.vscode.lsp.parametric;
 
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import org.rascalmpl.vscode.lsp.BaseLanguageServer;
+import org.rascalmpl.vscode.lsp.util.concurrent.PriorityScheduler;
 
 public class ParametricLanguageServer extends BaseLanguageServer {
     public static void main(String[] args) {
         startLanguageServer(() -> {
-            ExecutorService threadPool = Executors.newCachedThreadPool();
-            return new ParametricTextDocumentService(threadPool);
+            PriorityScheduler scheduler = new PriorityScheduler(Executors.newCachedThreadPool());
+            return new ParametricTextDocumentService(scheduler);
         }, 9999);
     }
 }
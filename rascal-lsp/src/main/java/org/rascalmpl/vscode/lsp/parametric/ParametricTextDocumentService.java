@@ -34,13 +34,14 @@ import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
 
 import com.google.common.io.CharStreams;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.eclipse.lsp4j.ClientCapabilities;
 import org.eclipse.lsp4j.DefinitionParams;
 import org.eclipse.lsp4j.Diagnostic;
 import org.eclipse.lsp4j.DiagnosticSeverity;
@@ -65,6 +66,7 @@ import org.eclipse.lsp4j.SemanticTokensParams;
 import org.eclipse.lsp4j.SemanticTokensRangeParams;
 import org.eclipse.lsp4j.ServerCapabilities;
 import org.eclipse.lsp4j.SymbolInformation;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
 import org.eclipse.lsp4j.TextDocumentIdentifier;
 import org.eclipse.lsp4j.TextDocumentItem;
 import org.eclipse.lsp4j.TextDocumentSyncKind;
@@ -83,10 +85,13 @@ import org.rascalmpl.vscode.lsp.TextDocumentState;
 import org.rascalmpl.vscode.lsp.parametric.model.ParametricFileFacts;
 import org.rascalmpl.vscode.lsp.parametric.model.ParametricSummaryBridge;
 import org.rascalmpl.vscode.lsp.terminal.ITerminalIDEServer.LanguageParameter;
+import org.rascalmpl.vscode.lsp.util.CachingSemanticTokens;
 import org.rascalmpl.vscode.lsp.util.Diagnostics;
+import org.rascalmpl.vscode.lsp.util.ISemanticTokens;
 import org.rascalmpl.vscode.lsp.util.Outline;
 import org.rascalmpl.vscode.lsp.util.SemanticTokenizer;
 import org.rascalmpl.vscode.lsp.util.concurrent.InterruptibleFuture;
+import org.rascalmpl.vscode.lsp.util.concurrent.PriorityScheduler;
 import org.rascalmpl.vscode.lsp.util.locations.ColumnMaps;
 import org.rascalmpl.vscode.lsp.util.locations.Locations;
 
@@ -94,9 +99,9 @@ import io.usethesource.vallang.ISourceLocation;
 
 public class ParametricTextDocumentService implements IBaseTextDocumentService, LanguageClientAware {
     private static final Logger logger = LogManager.getLogger(ParametricTextDocumentService.class);
-    private final ExecutorService ownExecuter;
+    private final PriorityScheduler ownExecuter;
 
-    private final SemanticTokenizer tokenizer = new SemanticTokenizer();
+    private final ISemanticTokens tokenizer = new CachingSemanticTokens(new SemanticTokenizer());
     private @MonotonicNonNull LanguageClient client;
 
     private final Map<ISourceLocation, TextDocumentState> files;
@@ -104,18 +109,20 @@ public class ParametricTextDocumentService implements IBaseTextDocumentService,
 
     private final Map<String, ParametricFileFacts> facts = new ConcurrentHashMap<>();
     private final Map<String, ILanguageContributions> contributions = new ConcurrentHashMap<>();
+    /** loaded language implementations, shared between the extensions of a language */
+    private final Map<String, InterpretedLanguageContributions> implementations = new ConcurrentHashMap<>();
 
-    public ParametricTextDocumentService(ExecutorService exec) {
+    public ParametricTextDocumentService(PriorityScheduler exec) {
         this.ownExecuter = exec;
         this.files = new ConcurrentHashMap<>();
         this.columns = new ColumnMaps(this::getContents);
     }
 
-    private String getContents(ISourceLocation file) {
+    private CharSequence getContents(ISourceLocation file) {
         file = file.top();
         TextDocumentState ideState = files.get(file);
         if (ideState != null) {
-            return ideState.getCurrentContent();
+            return ideState.getCurrentBuffer();
         }
         try (Reader src = URIResolverRegistry.getInstance().getCharacterReader(file)) {
             return CharStreams.toString(src);
@@ -128,7 +135,7 @@ public class ParametricTextDocumentService implements IBaseTextDocumentService,
 
     public void initializeServerCapabilities(ServerCapabilities result) {
         result.setDefinitionProvider(true);
-        result.setTextDocumentSync(TextDocumentSyncKind.Full);
+        result.setTextDocumentSync(TextDocumentSyncKind.Incremental);
         result.setHoverProvider(true);
         result.setReferencesProvider(true);
         result.setDocumentSymbolProvider(true);
@@ -142,6 +149,11 @@ public class ParametricTextDocumentService implements IBaseTextDocumentService,
         facts.values().forEach(v -> v.setClient(client));
     }
 
+    @Override
+    public void initialized(ClientCapabilities capabilities) {
+        // the evaluators of a language are created when it is registered
+    }
+
     // LSP interface methods
 
     @Override
@@ -154,17 +166,22 @@ public class ParametricTextDocumentService implements IBaseTextDocumentService,
     @Override
     public void didChange(DidChangeTextDocumentParams params) {
         logger.trace("Change contents: {}", params.getTextDocument());
-        updateContents(params.getTextDocument(), last(params.getContentChanges()).getText());
+        updateContents(params.getTextDocument(), params.getContentChanges());
         invalidateFacts(params.getTextDocument());
     }
 
     @Override
     public void didClose(DidCloseTextDocumentParams params) {
         logger.debug("Did Close: {}", params.getTextDocument());
-        if (files.remove(Locations.toLoc(params.getTextDocument())) == null) {
+        TextDocumentState file = files.remove(Locations.toLoc(params.getTextDocument()));
+        if (file == null) {
             throw new ResponseErrorException(new ResponseError(ResponseErrorCode.InternalError,
                 "Unknown file: " + Locations.toLoc(params.getTextDocument()), params));
         }
+        // the columns of the file on disk can differ from the editor contents
+        columns.clear(file.getLocation());
+        logger.debug("Parses for {}: {} started, {} coalesced, {} cancelled", file.getLocation(),
+            file.getParsesStarted(), file.getParsesCoalesced(), file.getParsesCancelled());
     }
 
 
@@ -184,10 +201,15 @@ public class ParametricTextDocumentService implements IBaseTextDocumentService,
         // facts.invalidate(Locations.toLoc(params.getTextDocument()));
     }
 
-    private TextDocumentState updateContents(TextDocumentIdentifier doc, String newContents) {
+    private TextDocumentState updateContents(TextDocumentIdentifier doc, List<TextDocumentContentChangeEvent> changes) {
         TextDocumentState file = getFile(doc);
         logger.trace("New contents for {}", doc);
-        handleParsingErrors(file, file.update(newContents));
+        CompletableFuture<ITree> previous = file.getCurrentTreeInBackground();
+        CompletableFuture<ITree> next = file.update(changes);
+        if (next != previous) {
+            // otherwise this change was coalesced with a pending parse that we already report on
+            handleParsingErrors(file, next);
+        }
         return file;
     }
 
@@ -221,15 +243,11 @@ public class ParametricTextDocumentService implements IBaseTextDocumentService,
     }
 
     private void handleParsingErrors(TextDocumentState file) {
-        handleParsingErrors(file, file.getCurrentTreeAsync());
+        handleParsingErrors(file, file.getCurrentTreeInBackground());
     }
 
     // Private utility methods
 
-    private static <T> T last(List<T> l) {
-        return l.get(l.size() - 1);
-    }
-
     private ILanguageContributions contributions(TextDocumentIdentifier doc) {
         return contributions(doc.getUri());
     }
@@ -280,8 +298,12 @@ public class ParametricTextDocumentService implements IBaseTextDocumentService,
         return files.computeIfAbsent(Locations.toLoc(doc),
             l -> {
                 ILanguageContributions cont = contributions(doc);
-                // TODO: store this interruptible future and also replace it
-                return new TextDocumentState((loc, inp) -> cont.parseSourceFile(loc, inp).get(), l, doc.getText());
+                TextDocumentState state = new TextDocumentState((loc, inp) -> cont.parseSourceFile(loc, inp.toString()),
+                    l, doc.getText(), TextDocumentState.DEFAULT_PARSE_DELAY, ownExecuter.background());
+                // from now on the columns follow the editor contents
+                columns.clear(l);
+                state.addChangeListener(columns::linesChanged);
+                return state;
             }
         );
     }
@@ -302,35 +324,39 @@ public class ParametricTextDocumentService implements IBaseTextDocumentService,
         ownExecuter.shutdown();
     }
 
-    private CompletableFuture<SemanticTokens> getSemanticTokens(TextDocumentIdentifier doc) {
+    private <T> CompletableFuture<T> getSemanticTokens(TextDocumentIdentifier doc, Function<ITree, T> tokenize, T empty) {
         return getFile(doc).getCurrentTreeAsync()
-                .thenApplyAsync(tokenizer::semanticTokensFull, ownExecuter)
+                .thenApplyAsync(tokenize, ownExecuter.interactive())
                 .exceptionally(e -> {
                     logger.error("Tokenization failed", e);
-                    return new SemanticTokens(Collections.emptyList());
+                    return empty;
                 })
                 .whenComplete((r, e) ->
-                    logger.trace("Semantic tokens success, reporting {} tokens back", r == null ? 0 : r.getData().size())
+                    logger.trace("Semantic tokens success for {}", doc)
                 );
     }
 
     @Override
     public CompletableFuture<SemanticTokens> semanticTokensFull(SemanticTokensParams params) {
         logger.debug("semanticTokensFull: {}", params.getTextDocument());
-        return getSemanticTokens(params.getTextDocument());
+        return getSemanticTokens(params.getTextDocument(), tokenizer::semanticTokensFull,
+            new SemanticTokens(Collections.emptyList()));
     }
 
     @Override
     public CompletableFuture<Either<SemanticTokens, SemanticTokensDelta>> semanticTokensFullDelta(
             SemanticTokensDeltaParams params) {
         logger.debug("semanticTokensFullDelta: {}", params.getTextDocument());
-        return getSemanticTokens(params.getTextDocument()).thenApply(Either::forLeft);
+        return getSemanticTokens(params.getTextDocument(),
+            t -> tokenizer.semanticTokensFullDelta(params.getPreviousResultId(), t),
+            Either.<SemanticTokens, SemanticTokensDelta>forLeft(new SemanticTokens(Collections.emptyList())));
     }
 
     @Override
     public CompletableFuture<SemanticTokens> semanticTokensRange(SemanticTokensRangeParams params) {
-        logger.debug("semanticTokensRange: {}", params.getTextDocument());
-        return getSemanticTokens(params.getTextDocument());
+        logger.debug("semanticTokensRange: {} {}", params.getTextDocument(), params.getRange());
+        return getSemanticTokens(params.getTextDocument(), t -> tokenizer.semanticTokensRange(params.getRange(), t),
+            new SemanticTokens(Collections.emptyList()));
     }
 
     @Override
@@ -394,8 +420,13 @@ public class ParametricTextDocumentService implements IBaseTextDocumentService,
     public void registerLanguage(LanguageParameter lang) {
         logger.trace("registerLanguage({})", lang.getName());
 
-        InterpretedLanguageContributions contrib = new InterpretedLanguageContributions(lang, ownExecuter);
-        ParametricFileFacts fact = new ParametricFileFacts(contrib, this::getFile, columns, ownExecuter);
+        ILanguageContributions previous = contributions.get(lang.getExtension());
+        // a language with multiple extensions is registered once per extension, these share a single evaluator,
+        // but if the same extension is registered again, the implementation has been changed and is reloaded.
+        // Registrations of the same language wait for each other, so the modules are only imported once.
+        InterpretedLanguageContributions contrib = implementations.compute(implementationKey(lang), (k, existing) ->
+            existing == null || existing == previous ? new InterpretedLanguageContributions(lang, ownExecuter.getThreadPool()) : existing);
+        ParametricFileFacts fact = new ParametricFileFacts(contrib, this::getFile, columns, ownExecuter.background());
 
         contributions.put(lang.getExtension(), contrib);
         facts.put(lang.getExtension(), fact);
@@ -403,4 +434,8 @@ public class ParametricTextDocumentService implements IBaseTextDocumentService,
             fact.setClient(client);
         }
     }
+
+    private static String implementationKey(LanguageParameter lang) {
+        return String.join("\0", lang.getName(), lang.getPathConfig(), lang.getMainModule(), lang.getMainFunction());
+    }
 }
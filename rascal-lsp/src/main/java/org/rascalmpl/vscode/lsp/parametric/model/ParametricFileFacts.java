@@ -97,7 +97,7 @@ public class ParametricFileFacts {
 
         private InterruptibleFuture<ParametricSummaryBridge> updateSummary(ISourceLocation file) {
             InterruptibleFuture<ParametricSummaryBridge> result = InterruptibleFuture.flatten(
-                lookupState.apply(file).getCurrentTreeAsync()
+                lookupState.apply(file).getCurrentTreeInBackground()
                     .thenApply(t -> contrib.summarize(file, t)), exec)
                 .thenApply(cons -> new ParametricSummaryBridge(cons, columns));
             // also schedule update of error messages
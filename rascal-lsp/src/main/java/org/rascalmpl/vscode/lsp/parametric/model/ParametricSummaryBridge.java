@@ -26,7 +26,6 @@
  */
 package org.rascalmpl.vscode.lsp.parametric.model;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -44,9 +43,9 @@ import org.rascalmpl.values.IRascalValueFactory;
 import org.rascalmpl.vscode.lsp.util.Diagnostics;
 import org.rascalmpl.vscode.lsp.util.Lazy;
 import org.rascalmpl.vscode.lsp.util.locations.ColumnMaps;
-import org.rascalmpl.vscode.lsp.util.locations.IRangeMap;
+import org.rascalmpl.vscode.lsp.util.locations.IRangeLookup;
 import org.rascalmpl.vscode.lsp.util.locations.Locations;
-import org.rascalmpl.vscode.lsp.util.locations.impl.TreeMapLookup;
+import org.rascalmpl.vscode.lsp.util.locations.impl.PackedRangeMap;
 import io.usethesource.vallang.IConstructor;
 import io.usethesource.vallang.ISet;
 import io.usethesource.vallang.ISourceLocation;
@@ -77,18 +76,18 @@ public class ParametricSummaryBridge {
     private final IWithKeywordParameters<? extends IConstructor> data;
 
     private final Lazy<List<Diagnostic>> messages;
-    private final Lazy<IRangeMap<List<Location>>> definitions;
-    private final Lazy<IRangeMap<List<Location>>> references;
-    private final Lazy<IRangeMap<List<Location>>> implementations;
-    private final Lazy<IRangeMap<List<Either<String, MarkedString>>>> hovers;
+    private final Lazy<IRangeLookup<List<Location>>> definitions;
+    private final Lazy<IRangeLookup<List<Location>>> references;
+    private final Lazy<IRangeLookup<List<Location>>> implementations;
+    private final Lazy<IRangeLookup<List<Either<String, MarkedString>>>> hovers;
 
     public ParametricSummaryBridge(ISourceLocation file) {
         this.data = emptySummary(file).asWithKeywordParameters();
         this.messages = Collections::emptyList;
-        this.definitions = TreeMapLookup::new;
-        this.references = TreeMapLookup::new;
-        this.implementations = TreeMapLookup::new;
-        this.hovers = TreeMapLookup::new;
+        this.definitions = PackedRangeMap::empty;
+        this.references = PackedRangeMap::empty;
+        this.implementations = PackedRangeMap::empty;
+        this.hovers = PackedRangeMap::empty;
     }
 
     public ParametricSummaryBridge(IConstructor summary, ColumnMaps cm) {
@@ -100,19 +99,19 @@ public class ParametricSummaryBridge {
         );
         this.definitions = Lazy.defer(
             () -> translateRelation(getKWFieldSet(data, "definitions"),
-                v -> Locations.toLSPLocation((ISourceLocation)v, cm),
+                toLSPLocation(cm),
                 cm
             )
         );
         this.references = Lazy.defer(
             () -> translateRelation(getKWFieldSet(data, "references"),
-                v -> Locations.toLSPLocation((ISourceLocation)v, cm),
+                toLSPLocation(cm),
                 cm
             )
         );
         this.implementations = Lazy.defer(
             () -> translateRelation(getKWFieldSet(data, "implementations"),
-                v -> Locations.toLSPLocation((ISourceLocation)v, cm),
+                toLSPLocation(cm),
                 cm
             )
         );
@@ -124,28 +123,23 @@ public class ParametricSummaryBridge {
         );
     }
 
-    private static <T> IRangeMap<List<T>> translateRelation(ISet binaryRel, Function<IValue, T> valueMapper, ColumnMaps cm) {
-        TreeMapLookup<List<T>> result = new TreeMapLookup<>();
+    private static <T> IRangeLookup<List<T>> translateRelation(ISet binaryRel, Function<IValue, T> valueMapper, ColumnMaps cm) {
+        PackedRangeMap.Builder<T> result = PackedRangeMap.builder();
+        Locations.Converter ranges = Locations.converter(cm);
         for (IValue v: binaryRel) {
             ITuple row = (ITuple)v;
-            Range from = Locations.toRange((ISourceLocation)row.get(0), cm);
-            T to = valueMapper.apply(row.get(1));
-            List<T> existing = result.getExact(from);
-            if (existing == null) {
-                // most cases there is only a single entry, to so save a lot of memory, we store a singleton list to start with
-                result.put(from, Collections.singletonList(to));
-            }
-            else if (existing.size() == 1) {
-                // we had a singleton list in there, so let's replace it with a regular last
-                existing = new ArrayList<>(existing);
-                result.put(from, existing);
-                existing.add(to);
-            }
-            else {
-                existing.add(to);
-            }
+            result.put(ranges.toRange((ISourceLocation)row.get(0)), valueMapper.apply(row.get(1)));
         }
-        return result;
+        // ranges with multiple values are grouped into a list when the map is built
+        return result.buildGrouped();
+    }
+
+    /**
+     * translate the values of a relation in one pass, so the converter is created per pass
+     */
+    private static Function<IValue, Location> toLSPLocation(ColumnMaps cm) {
+        Locations.Converter locations = Locations.converter(cm);
+        return v -> locations.toLSPLocation((ISourceLocation)v);
     }
 
     private static ISet getKWFieldSet(IWithKeywordParameters<? extends IConstructor> data, String name) {
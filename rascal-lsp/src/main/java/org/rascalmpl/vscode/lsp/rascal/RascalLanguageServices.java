@@ -29,20 +29,24 @@ package org.rascalmpl.vscode.lsp.rascal;
 import static org.rascalmpl.vscode.lsp.util.EvaluatorUtil.makeFutureEvaluator;
 import static org.rascalmpl.vscode.lsp.util.EvaluatorUtil.runEvaluator;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.checkerframework.checker.nullness.qual.Nullable;
-import org.rascalmpl.interpreter.Evaluator;
 import org.rascalmpl.library.lang.rascal.syntax.RascalParser;
 import org.rascalmpl.library.util.PathConfig;
 import org.rascalmpl.parser.Parser;
@@ -50,10 +54,14 @@ import org.rascalmpl.parser.gtd.result.action.IActionExecutor;
 import org.rascalmpl.parser.gtd.result.out.DefaultNodeFlattener;
 import org.rascalmpl.parser.uptr.UPTRNodeFactory;
 import org.rascalmpl.parser.uptr.action.NoActionExecutor;
+import org.rascalmpl.uri.URIUtil;
 import org.rascalmpl.values.IRascalValueFactory;
 import org.rascalmpl.values.parsetrees.ITree;
 import org.rascalmpl.values.parsetrees.TreeAdapter;
+import org.rascalmpl.vscode.lsp.util.EvaluatorPool;
+import org.rascalmpl.vscode.lsp.util.Rope;
 import org.rascalmpl.vscode.lsp.util.concurrent.InterruptibleFuture;
+import org.rascalmpl.vscode.lsp.util.concurrent.PriorityScheduler;
 import io.usethesource.vallang.IConstructor;
 import io.usethesource.vallang.IList;
 import io.usethesource.vallang.ISet;
@@ -66,28 +74,84 @@ public class RascalLanguageServices {
     private static final IValueFactory VF = IRascalValueFactory.getInstance();
 
     private static final Logger logger = LogManager.getLogger(RascalLanguageServices.class);
+    /** the parser doesn't run actions, so this can be shared between all parses */
+    private static final IActionExecutor<ITree> NO_ACTIONS = new NoActionExecutor();
 
-    private final Future<Evaluator> outlineEvaluator;
-    private final Future<Evaluator> summaryEvaluator;
-    private final Future<Evaluator> compilerEvaluator;
+    /** maximum amount of evaluators per role, every evaluator has its own copy of the imported modules */
+    private static final int EVALUATOR_POOL_SIZE = Integer.getInteger("rascal.lsp.evaluatorPoolSize",
+        Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+    /** evaluators (except the last of each role) are dropped after being idle for this long */
+    private static final Duration EVALUATOR_IDLE_TIMEOUT = Duration.ofSeconds(Long.getLong("rascal.lsp.evaluatorIdleSeconds", 300L));
+    /** evaluators are loaded after the first document is highlighted, or after this delay if that takes too long */
+    private static final long EVALUATOR_WARMUP_DELAY = Long.getLong("rascal.lsp.evaluatorWarmupSeconds", 10L);
 
-    private final ExecutorService exec;
+    private final EvaluatorPool outlineEvaluators;
+    private final EvaluatorPool summaryEvaluators;
+    private final EvaluatorPool compilerEvaluators;
 
-    public RascalLanguageServices(ExecutorService exec) {
+    private final PriorityScheduler exec;
+    private final CompletableFuture<Void> warmedUp = new CompletableFuture<>();
+
+    public RascalLanguageServices(PriorityScheduler exec) {
         this.exec = exec;
 
-        outlineEvaluator = makeFutureEvaluator(exec, "Rascal outline", null, "lang::rascal::lsp::Outline");
-        summaryEvaluator = makeFutureEvaluator(exec, "Rascal summary", null, "lang::rascalcore::check::Summary");
-        compilerEvaluator = makeFutureEvaluator(exec, "Rascal compiler", null, "lang::rascalcore::check::Checker");
+        CompletableFuture.runAsync(RascalLanguageServices::warmupParser, exec.getThreadPool());
+        CompletableFuture.runAsync(this::awaitWarmup, exec.getLowPriorityThreadPool());
+        outlineEvaluators = makePool("Rascal outline", "lang::rascal::lsp::Outline");
+        summaryEvaluators = makePool("Rascal summary", "lang::rascalcore::check::Summary");
+        compilerEvaluators = makePool("Rascal compiler", "lang::rascalcore::check::Checker");
+    }
+
+    private EvaluatorPool makePool(String label, String... imports) {
+        // the imports take a lot of CPU time, so they're done with a low priority, and only after the first document is shown
+        return new EvaluatorPool(label, EVALUATOR_POOL_SIZE, EVALUATOR_IDLE_TIMEOUT,
+            name -> warmedUp.thenCompose(v -> makeFutureEvaluator(exec.getLowPriorityThreadPool(), name, null, imports)));
+    }
+
+    private void awaitWarmup() {
+        try {
+            warmedUp.get(EVALUATOR_WARMUP_DELAY, TimeUnit.SECONDS);
+        }
+        catch (TimeoutException e) {
+            logger.debug("No document was highlighted within {} seconds, loading evaluators", EVALUATOR_WARMUP_DELAY);
+            warmedUp.complete(null);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            warmedUp.complete(null);
+        }
+        catch (ExecutionException e) {
+            warmedUp.complete(null);
+        }
+    }
+
+    /**
+     * Signal that the editor is showing a (highlighted) document, and that the evaluators can be loaded
+     */
+    public void startEvaluators() {
+        if (warmedUp.complete(null)) {
+            logger.debug("First document is ready, loading evaluators");
+        }
+    }
+
+    /**
+     * @return per evaluator role a future that completes when its first evaluator is loaded
+     */
+    public Map<String, CompletableFuture<Void>> evaluatorsReady() {
+        Map<String, CompletableFuture<Void>> result = new LinkedHashMap<>();
+        for (EvaluatorPool pool : new EvaluatorPool[] { outlineEvaluators, summaryEvaluators, compilerEvaluators }) {
+            result.put(pool.getLabel(), pool.ready());
+        }
+        return result;
     }
 
     public InterruptibleFuture<@Nullable IConstructor> getSummary(ISourceLocation occ, PathConfig pcfg) {
         try {
             IString moduleName = VF.string(pcfg.getModuleName(occ));
-            return runEvaluator("makeSummary", summaryEvaluator, eval -> {
+            return runEvaluator("makeSummary", summaryEvaluators, eval -> {
                 IConstructor result = (IConstructor) eval.call("makeSummary", moduleName, pcfg.asConstructor());
                 return result != null && result.asWithKeywordParameters().hasParameters() ? result : null;
-            }, null, exec);
+            }, null, exec.background());
         } catch (IOException e) {
             logger.error("Error looking up module name from source location {}", occ, e);
             return new InterruptibleFuture<>(CompletableFuture.completedFuture(null), () -> {
@@ -97,7 +161,7 @@ public class RascalLanguageServices {
 
     public InterruptibleFuture<Map<ISourceLocation, ISet>> compileFolder(ISourceLocation folder, PathConfig pcfg,
         Executor exec) {
-        return runEvaluator("checkAll", compilerEvaluator,
+        return runEvaluator("checkAll", compilerEvaluators,
             e -> translateCheckResults((IList) e.call("checkAll", folder, pcfg.asConstructor())),
             Collections.emptyMap(), exec);
     }
@@ -124,7 +188,7 @@ public class RascalLanguageServices {
 
     public InterruptibleFuture<Map<ISourceLocation, ISet>> compileFileList(IList files, PathConfig pcfg,
         Executor exec) {
-        return runEvaluator("check", compilerEvaluator,
+        return runEvaluator("check", compilerEvaluators,
             e -> translateCheckResults((IList) e.call("check", files, pcfg.asConstructor())),
             buildEmptyResult(files), exec);
     }
@@ -154,21 +218,51 @@ public class RascalLanguageServices {
             });
         }
 
-        return runEvaluator("outline", outlineEvaluator, eval -> (IList) eval.call("outlineRascalModule", module),
-            VF.list(), exec);
+        return runEvaluator("outline", outlineEvaluators, eval -> (IList) eval.call("outlineRascalModule", module),
+            VF.list(), exec.background());
     }
 
 
-    public CompletableFuture<ITree> parseSourceFile(ISourceLocation loc, String input) {
-        return CompletableFuture.supplyAsync(() -> parseContents(loc, input.toCharArray()), exec);
+    /**
+     * The generated parser cannot be stopped once it runs, so interrupting only skips a parse that
+     * is still waiting for a thread of the executor
+     */
+    public InterruptibleFuture<ITree> parseSourceFile(ISourceLocation loc, Rope input) {
+        AtomicBoolean interrupted = new AtomicBoolean(false);
+        CompletableFuture<ITree> result = CompletableFuture.supplyAsync(() -> {
+            if (interrupted.get()) {
+                throw new CancellationException("Parse of " + loc + " was interrupted before it started");
+            }
+            // the generated parser needs a char[], but it only reads it, so the flattened rope can be shared
+            return parseContents(loc, input.sharedCharArray());
+        }, exec.interactive());
+        return new InterruptibleFuture<>(result, () -> interrupted.set(true));
     }
 
-    private ITree parseContents(ISourceLocation loc, char[] input) {
-        IActionExecutor<ITree> actions = new NoActionExecutor();
-        return new RascalParser().parse(Parser.START_MODULE, loc.getURI(), input, actions,
+    /**
+     * Parse a Rascal module. The generated parser keeps the state of a single parse,
+     * so every parse needs its own parser (and flattener).
+     */
+    public static ITree parseContents(ISourceLocation loc, char[] input) {
+        return new RascalParser().parse(Parser.START_MODULE, loc.getURI(), input, NO_ACTIONS,
             new DefaultNodeFlattener<>(), new UPTRNodeFactory(true));
     }
 
+    /**
+     * Loading and initializing the generated parser class (with its huge tables) takes a while,
+     * so we do that at startup instead of during the parse of the first opened file.
+     */
+    private static void warmupParser() {
+        long start = System.nanoTime();
+        try {
+            parseContents(URIUtil.rootLocation("warmup"), "module Warmup\n\nint warmup() = 1;\n".toCharArray());
+            logger.debug("Parser warmed up in {}ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        catch (RuntimeException e) {
+            logger.debug("Parser warmup failed", e);
+        }
+    }
+
     public List<CodeLensSuggestion> locateCodeLenses(ITree tree) {
         tree = TreeAdapter.getStartTop(tree);
         ITree module = TreeAdapter.getArg(TreeAdapter.getArg(tree, "header"), "name");
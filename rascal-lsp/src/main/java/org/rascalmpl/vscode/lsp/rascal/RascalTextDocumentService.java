@@ -34,13 +34,14 @@ import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import com.google.common.io.CharStreams;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.eclipse.lsp4j.ClientCapabilities;
 import org.eclipse.lsp4j.CodeLens;
 import org.eclipse.lsp4j.CodeLensOptions;
 import org.eclipse.lsp4j.CodeLensParams;
@@ -68,6 +69,7 @@ import org.eclipse.lsp4j.SemanticTokensParams;
 import org.eclipse.lsp4j.SemanticTokensRangeParams;
 import org.eclipse.lsp4j.ServerCapabilities;
 import org.eclipse.lsp4j.SymbolInformation;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
 import org.eclipse.lsp4j.TextDocumentIdentifier;
 import org.eclipse.lsp4j.TextDocumentItem;
 import org.eclipse.lsp4j.TextDocumentSyncKind;
@@ -86,9 +88,13 @@ import org.rascalmpl.vscode.lsp.rascal.RascalLanguageServices.CodeLensSuggestion
 import org.rascalmpl.vscode.lsp.rascal.model.FileFacts;
 import org.rascalmpl.vscode.lsp.rascal.model.SummaryBridge;
 import org.rascalmpl.vscode.lsp.terminal.ITerminalIDEServer.LanguageParameter;
+import org.rascalmpl.vscode.lsp.util.CachingSemanticTokens;
 import org.rascalmpl.vscode.lsp.util.Diagnostics;
+import org.rascalmpl.vscode.lsp.util.ISemanticTokens;
 import org.rascalmpl.vscode.lsp.util.Outline;
+import org.rascalmpl.vscode.lsp.util.ProgressReporter;
 import org.rascalmpl.vscode.lsp.util.SemanticTokenizer;
+import org.rascalmpl.vscode.lsp.util.concurrent.PriorityScheduler;
 import org.rascalmpl.vscode.lsp.util.locations.ColumnMaps;
 import org.rascalmpl.vscode.lsp.util.locations.Locations;
 
@@ -96,17 +102,17 @@ import io.usethesource.vallang.ISourceLocation;
 
 public class RascalTextDocumentService implements IBaseTextDocumentService, LanguageClientAware {
     private static final Logger logger = LogManager.getLogger(RascalTextDocumentService.class);
-    private final ExecutorService ownExecuter;
+    private final PriorityScheduler ownExecuter;
     private final RascalLanguageServices rascalServices;
 
-    private final SemanticTokenizer tokenizer = new SemanticTokenizer();
+    private final ISemanticTokens tokenizer = new CachingSemanticTokens(new SemanticTokenizer());
     private @MonotonicNonNull LanguageClient client;
 
     private final Map<ISourceLocation, TextDocumentState> documents;
     private final ColumnMaps columns;
     private final FileFacts facts;
 
-    public RascalTextDocumentService(RascalLanguageServices rascal, ExecutorService exec) {
+    public RascalTextDocumentService(RascalLanguageServices rascal, PriorityScheduler exec) {
         this.ownExecuter = exec;
         this.documents = new ConcurrentHashMap<>();
         this.rascalServices = rascal;
@@ -114,11 +120,11 @@ public class RascalTextDocumentService implements IBaseTextDocumentService, Lang
         this.facts = new FileFacts(ownExecuter, rascal, columns);
     }
 
-    private String getContents(ISourceLocation file) {
+    private CharSequence getContents(ISourceLocation file) {
         file = file.top();
         TextDocumentState ideState = documents.get(file);
         if (ideState != null) {
-            return ideState.getCurrentContent();
+            return ideState.getCurrentBuffer();
         }
         try (Reader src = URIResolverRegistry.getInstance().getCharacterReader(file)) {
             return CharStreams.toString(src);
@@ -131,7 +137,7 @@ public class RascalTextDocumentService implements IBaseTextDocumentService, Lang
 
     public void initializeServerCapabilities(ServerCapabilities result) {
         result.setDefinitionProvider(true);
-        result.setTextDocumentSync(TextDocumentSyncKind.Full);
+        result.setTextDocumentSync(TextDocumentSyncKind.Incremental);
         result.setDocumentSymbolProvider(true);
         result.setHoverProvider(true);
         result.setSemanticTokensProvider(tokenizer.options());
@@ -144,6 +150,13 @@ public class RascalTextDocumentService implements IBaseTextDocumentService, Lang
         facts.setClient(client);
     }
 
+    @Override
+    public void initialized(ClientCapabilities capabilities) {
+        if (client != null) {
+            ProgressReporter.report(client, capabilities, "Rascal", rascalServices.evaluatorsReady());
+        }
+    }
+
     // LSP interface methods
 
     @Override
@@ -156,16 +169,23 @@ public class RascalTextDocumentService implements IBaseTextDocumentService, Lang
     @Override
     public void didChange(DidChangeTextDocumentParams params) {
         logger.trace("Change contents: {}", params.getTextDocument());
-        updateContents(params.getTextDocument(), last(params.getContentChanges()).getText());
+        updateContents(params.getTextDocument(), params.getContentChanges());
     }
 
     @Override
     public void didClose(DidCloseTextDocumentParams params) {
         logger.debug("Close: {}", params.getTextDocument());
-        if (documents.remove(Locations.toLoc(params.getTextDocument())) == null) {
+        TextDocumentState file = documents.remove(Locations.toLoc(params.getTextDocument()));
+        if (file == null) {
             throw new ResponseErrorException(new ResponseError(ResponseErrorCode.InternalError,
                 "Unknown file: " + Locations.toLoc(params.getTextDocument()), params));
         }
+        // the columns of the file on disk can differ from the editor contents
+        columns.clear(file.getLocation());
+        // a deleted or renamed module should not be checked as a dependent of other modules anymore
+        facts.close(file.getLocation());
+        logger.debug("Parses for {}: {} started, {} coalesced, {} cancelled", file.getLocation(),
+            file.getParsesStarted(), file.getParsesCoalesced(), file.getParsesCancelled());
     }
 
     @Override
@@ -176,10 +196,15 @@ public class RascalTextDocumentService implements IBaseTextDocumentService, Lang
         facts.invalidate(Locations.toLoc(params.getTextDocument()));
     }
 
-    private TextDocumentState updateContents(TextDocumentIdentifier doc, String newContents) {
+    private TextDocumentState updateContents(TextDocumentIdentifier doc, List<TextDocumentContentChangeEvent> changes) {
         TextDocumentState file = getFile(doc);
         logger.trace("New contents for {}", doc);
-        handleParsingErrors(file, file.update(newContents));
+        CompletableFuture<ITree> previous = file.getCurrentTreeInBackground();
+        CompletableFuture<ITree> next = file.update(changes);
+        if (next != previous) {
+            // otherwise this change was coalesced with a pending parse that we already report on
+            handleParsingErrors(file, next);
+        }
         return file;
     }
 
@@ -201,6 +226,9 @@ public class RascalTextDocumentService implements IBaseTextDocumentService, Lang
                     "Rascal Parser");
             }
             logger.trace("Finished parsing tree, reporting new parse error: {} for: {}", newParseError, file.getLocation());
+            if (tree != null) {
+                facts.updateImports(file.getLocation(), tree);
+            }
             facts.reportParseErrors(file.getLocation(),
                 newParseError == null ? Collections.emptyList() : Collections.singletonList(newParseError));
             return null;
@@ -208,7 +236,7 @@ public class RascalTextDocumentService implements IBaseTextDocumentService, Lang
     }
 
     private void handleParsingErrors(TextDocumentState file) {
-        handleParsingErrors(file,file.getCurrentTreeAsync());
+        handleParsingErrors(file, file.getCurrentTreeInBackground());
     }
 
 
@@ -245,13 +273,16 @@ public class RascalTextDocumentService implements IBaseTextDocumentService, Lang
 
     // Private utility methods
 
-    private static <T> T last(List<T> l) {
-        return l.get(l.size() - 1);
-    }
-
     private TextDocumentState open(TextDocumentItem doc) {
         return documents.computeIfAbsent(Locations.toLoc(doc),
-            l -> new TextDocumentState((loc, input) -> rascalServices.parseSourceFile(loc, input), l, doc.getText()));
+            l -> {
+                TextDocumentState state = new TextDocumentState(rascalServices::parseSourceFile,
+                    l, doc.getText(), TextDocumentState.DEFAULT_PARSE_DELAY, ownExecuter.background());
+                // from now on the columns follow the editor contents
+                columns.clear(l);
+                state.addChangeListener(columns::linesChanged);
+                return state;
+            });
     }
 
     private TextDocumentState getFile(TextDocumentIdentifier doc) {
@@ -270,35 +301,40 @@ public class RascalTextDocumentService implements IBaseTextDocumentService, Lang
         ownExecuter.shutdown();
     }
 
-    private CompletableFuture<SemanticTokens> getSemanticTokens(TextDocumentIdentifier doc) {
+    private <T> CompletableFuture<T> getSemanticTokens(TextDocumentIdentifier doc, Function<ITree, T> tokenize, T empty) {
         return getFile(doc).getCurrentTreeAsync()
-                .thenApplyAsync(tokenizer::semanticTokensFull, ownExecuter)
+                .thenApplyAsync(tokenize, ownExecuter.interactive())
+                .whenComplete((t, e) -> rascalServices.startEvaluators())
                 .exceptionally(e -> {
                     logger.error("Tokenization failed", e);
-                    return new SemanticTokens(Collections.emptyList());
+                    return empty;
                 })
                 .whenComplete((r, e) ->
-                    logger.trace("Semantic tokens success, reporting {} tokens back", r == null ? 0 : r.getData().size())
+                    logger.trace("Semantic tokens success for {}", doc)
                 );
     }
 
     @Override
     public CompletableFuture<SemanticTokens> semanticTokensFull(SemanticTokensParams params) {
         logger.debug("semanticTokensFull: {}", params.getTextDocument());
-        return getSemanticTokens(params.getTextDocument());
+        return getSemanticTokens(params.getTextDocument(), tokenizer::semanticTokensFull,
+            new SemanticTokens(Collections.emptyList()));
     }
 
     @Override
     public CompletableFuture<Either<SemanticTokens, SemanticTokensDelta>> semanticTokensFullDelta(
             SemanticTokensDeltaParams params) {
         logger.debug("semanticTokensFullDelta: {}", params.getTextDocument());
-        return getSemanticTokens(params.getTextDocument()).thenApply(Either::forLeft);
+        return getSemanticTokens(params.getTextDocument(),
+            t -> tokenizer.semanticTokensFullDelta(params.getPreviousResultId(), t),
+            Either.<SemanticTokens, SemanticTokensDelta>forLeft(new SemanticTokens(Collections.emptyList())));
     }
 
     @Override
     public CompletableFuture<SemanticTokens> semanticTokensRange(SemanticTokensRangeParams params) {
-        logger.debug("semanticTokensRange: {}", params.getTextDocument());
-        return getSemanticTokens(params.getTextDocument());
+        logger.debug("semanticTokensRange: {} {}", params.getTextDocument(), params.getRange());
+        return getSemanticTokens(params.getTextDocument(), t -> tokenizer.semanticTokensRange(params.getRange(), t),
+            new SemanticTokens(Collections.emptyList()));
     }
 
     @Override
@@ -310,7 +346,7 @@ public class RascalTextDocumentService implements IBaseTextDocumentService, Lang
     public CompletableFuture<List<? extends CodeLens>> codeLens(CodeLensParams params) {
         TextDocumentState f = getFile(params.getTextDocument());
         return f.getCurrentTreeAsync()
-            .thenApplyAsync(rascalServices::locateCodeLenses, ownExecuter)
+            .thenApplyAsync(rascalServices::locateCodeLenses, ownExecuter.background())
             .thenApply(List::stream)
             .thenApply(res -> res.map(this::makeRunCodeLens))
             .thenApply(s -> s.collect(Collectors.toList()))
@@ -27,14 +27,18 @@
 package org.rascalmpl.vscode.lsp.rascal.model;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
@@ -44,25 +48,41 @@ import org.eclipse.lsp4j.PublishDiagnosticsParams;
 import org.eclipse.lsp4j.services.LanguageClient;
 import org.rascalmpl.library.util.PathConfig;
 import org.rascalmpl.library.util.PathConfig.RascalConfigMode;
+import org.rascalmpl.uri.ISourceLocationWatcher.ISourceLocationChangeType;
+import org.rascalmpl.uri.ISourceLocationWatcher.ISourceLocationChanged;
+import org.rascalmpl.uri.URIResolverRegistry;
+import org.rascalmpl.values.parsetrees.ITree;
 import org.rascalmpl.vscode.lsp.rascal.RascalLanguageServices;
 import org.rascalmpl.vscode.lsp.util.Diagnostics;
 import org.rascalmpl.vscode.lsp.util.concurrent.InterruptibleFuture;
 import org.rascalmpl.vscode.lsp.util.concurrent.LazyUpdateableReference;
+import org.rascalmpl.vscode.lsp.util.concurrent.PriorityScheduler;
 import org.rascalmpl.vscode.lsp.util.concurrent.ReplaceableFuture;
 import org.rascalmpl.vscode.lsp.util.locations.ColumnMaps;
 
+import com.google.common.io.ByteStreams;
+
 import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IValue;
 
 public class FileFacts {
     private static final Logger logger = LogManager.getLogger(FileFacts.class);
     private final Executor exec;
+    private final Executor background;
     private final RascalLanguageServices rascal;
     private volatile @MonotonicNonNull LanguageClient client;
     private final Map<ISourceLocation, FileFact> files = new ConcurrentHashMap<>();
     private final ColumnMaps cm;
+    private final ModuleGraph imports = new ModuleGraph();
+    /** source folders whose modules have been indexed (or are being indexed) and are watched since */
+    private final Set<ISourceLocation> indexedSources = ConcurrentHashMap.newKeySet();
+    /** last modified time of the modules at the moment their imports were read */
+    private final Map<ISourceLocation, Long> indexedModules = new ConcurrentHashMap<>();
+    private final SummaryCache summaryCache = SummaryCache.inUserHome();
 
-    public FileFacts(Executor exec, RascalLanguageServices rascal, ColumnMaps cm) {
-        this.exec = exec;
+    public FileFacts(PriorityScheduler exec, RascalLanguageServices rascal, ColumnMaps cm) {
+        this.exec = exec.batch();
+        this.background = exec.background();
         this.rascal = rascal;
         this.cm = cm;
     }
@@ -83,6 +103,147 @@ public class FileFacts {
         getFile(file).reportParseErrors(msgs);
     }
 
+    /**
+     * Keep the import graph up to date with the latest parse tree of an open file
+     */
+    public void updateImports(ISourceLocation file, ITree tree) {
+        imports.update(file, tree);
+    }
+
+    /**
+     * Read the imports of the modules in the source folders of a project, so that we know the dependents of
+     * a module even if they have never been opened. Every folder is indexed only once, after that it is
+     * watched and only the modules that change are read again.
+     */
+    private void indexSources(PathConfig pcfg) {
+        for (IValue src : pcfg.getSrcs()) {
+            ISourceLocation folder = (ISourceLocation) src;
+            if (indexedSources.add(folder)) {
+                exec.execute(() -> indexSourceFolder(folder));
+            }
+        }
+    }
+
+    private void indexSourceFolder(ISourceLocation folder) {
+        URIResolverRegistry reg = URIResolverRegistry.getInstance();
+        try {
+            // watch before listing, so that no change gets lost in between
+            reg.watch(folder, true, changed -> exec.execute(() -> sourceChanged(changed)));
+        }
+        catch (IOException e) {
+            logger.debug("Cannot watch {}, changes made outside of the editor will be missed", folder, e);
+        }
+        List<ISourceLocation> modules = findModules(folder, new ArrayList<>());
+        int read = 0;
+        for (ISourceLocation module : modules) {
+            if (refreshModule(module, false)) {
+                read++;
+            }
+        }
+        logger.debug("Read the imports of {} out of {} modules in {}", read, modules.size(), folder);
+    }
+
+    private void sourceChanged(ISourceLocationChanged changed) {
+        ISourceLocation loc = changed.getLocation();
+        if (changed.getChangeType() == ISourceLocationChangeType.DELETED) {
+            // this might be a folder, in which case all the modules in it are gone
+            removeModules(loc);
+        }
+        else if (loc.getPath().endsWith(".rsc")) {
+            refreshModule(loc, false);
+        }
+        else if (changed.getChangeType() == ISourceLocationChangeType.CREATED
+            && URIResolverRegistry.getInstance().isDirectory(loc)) {
+            // a folder that was moved in or copied might contain modules already
+            findModules(loc, new ArrayList<>()).forEach(m -> refreshModule(m, false));
+        }
+    }
+
+    /**
+     * Read the imports of a module again, unless they were read after the last modification
+     * @param force read them even if the modification time did not change, for example after a save
+     * @return true if the imports were read
+     */
+    private boolean refreshModule(ISourceLocation module, boolean force) {
+        try {
+            long modified = URIResolverRegistry.getInstance().lastModified(module);
+            Long previous = indexedModules.put(module, modified);
+            if (force || previous == null || previous != modified) {
+                indexModule(module, previous == null && !force);
+                return true;
+            }
+        }
+        catch (IOException e) {
+            logger.debug("Cannot read the imports of {}", module, e);
+        }
+        return false;
+    }
+
+    /**
+     * Forget the indexed modules at (or below) a location that has been deleted
+     */
+    private void removeModules(ISourceLocation deleted) {
+        String folder = deleted.getPath().endsWith("/") ? deleted.getPath() : (deleted.getPath() + "/");
+        for (ISourceLocation module : indexedModules.keySet()) {
+            if (module.getScheme().equals(deleted.getScheme()) && module.getAuthority().equals(deleted.getAuthority())
+                && (module.getPath().equals(deleted.getPath()) || module.getPath().startsWith(folder))) {
+                logger.debug("Module {} was removed", module);
+                remove(module);
+            }
+        }
+    }
+
+    /**
+     * Called when an editor closes a file, if it doesn't exist on disk (anymore) its module is forgotten
+     */
+    public void close(ISourceLocation file) {
+        if (!URIResolverRegistry.getInstance().exists(file)) {
+            remove(file);
+        }
+    }
+
+    private void remove(ISourceLocation module) {
+        indexedModules.remove(module);
+        imports.remove(module);
+        if (files.remove(module) != null && client != null) {
+            // clear the diagnostics of the removed file
+            client.publishDiagnostics(new PublishDiagnosticsParams(module.getURI().toString(), Collections.emptyList()));
+        }
+    }
+
+    private void indexModule(ISourceLocation module, boolean first) throws IOException {
+        try (Reader src = URIResolverRegistry.getInstance().getCharacterReader(module)) {
+            ModuleHeader header = ModuleHeader.scan(src);
+            if (header == null) {
+                logger.debug("No module header found in {}", module);
+            }
+            else if (first) {
+                imports.addIfAbsent(module, header.getName(), header.getImports());
+            }
+            else {
+                imports.update(module, header.getName(), header.getImports());
+            }
+        }
+    }
+
+    private static List<ISourceLocation> findModules(ISourceLocation folder, List<ISourceLocation> result) {
+        URIResolverRegistry reg = URIResolverRegistry.getInstance();
+        try {
+            for (ISourceLocation entry : reg.list(folder)) {
+                if (reg.isDirectory(entry)) {
+                    findModules(entry, result);
+                }
+                else if (entry.getPath().endsWith(".rsc")) {
+                    result.add(entry);
+                }
+            }
+        }
+        catch (IOException e) {
+            logger.debug("Cannot list modules in {}", folder, e);
+        }
+        return result;
+    }
+
     private FileFact getFile(ISourceLocation l) {
         return files.computeIfAbsent(l, l1 -> new FileFact(l1, exec));
     }
@@ -94,6 +255,11 @@ public class FileFacts {
         private volatile List<Diagnostic> parseMessages = Collections.emptyList();
         private volatile List<Diagnostic> typeCheckerMessages = Collections.emptyList();
         private final ReplaceableFuture<Map<ISourceLocation, List<Diagnostic>>> typeCheckResults;
+        /** incremented on every save, so that an older run over the dependents can stop */
+        private final AtomicLong dependentsRun = new AtomicLong();
+        /** summary of an earlier run of the server, served until the first summary of this run is calculated */
+        private volatile @Nullable CompletableFuture<@Nullable SummaryBridge> cachedSummary = null;
+        private volatile boolean cacheRead = false;
 
         public FileFact(ISourceLocation file, Executor exec) {
             this.file = file;
@@ -105,21 +271,86 @@ public class FileFacts {
                 pcfg = new PathConfig();
             }
             this.pcfg = pcfg;
+            indexSources(pcfg);
             this.typeCheckResults = new ReplaceableFuture<>(CompletableFuture.completedFuture(Collections.emptyMap()));
             this.summary = new LazyUpdateableReference<>(
                 new InterruptibleFuture<>(CompletableFuture.completedFuture(new SummaryBridge()), () -> {
                 }),
                 r -> {
                     r.interrupt();
+                    if (!cacheRead) {
+                        cacheRead = true;
+                        cachedSummary = CompletableFuture.supplyAsync(this::readCachedSummary, background);
+                    }
+                    // the summary is stored under the source it was calculated from, not the source at the moment it's stored
+                    byte @Nullable[] source = readSourceIfCached();
                     InterruptibleFuture<@Nullable SummaryBridge> summaryCalc = rascal.getSummary(file, this.pcfg)
                         .thenApply(s -> s == null ? null : new SummaryBridge(s, cm));
                     // only run get summary after the typechecker for this file is done running
                     // (we cannot now global running type checkers, that is a different subject)
                     CompletableFuture<@Nullable SummaryBridge> mergedCalc = typeCheckResults.get().thenCompose(o -> summaryCalc.get());
+                    mergedCalc.thenAcceptAsync(calculated -> storeSummary(source, calculated), background);
                     return new InterruptibleFuture<>(mergedCalc, summaryCalc::interrupt);
                 });
         }
 
+        private @Nullable String cacheKey() {
+            try {
+                return pcfg.getModuleName(file) + "@" + pcfg.asConstructor();
+            }
+            catch (IOException e) {
+                return null;
+            }
+        }
+
+        private byte[] readSource() throws IOException {
+            try (InputStream in = URIResolverRegistry.getInstance().getInputStream(file)) {
+                return ByteStreams.toByteArray(in);
+            }
+        }
+
+        private @Nullable SummaryBridge readCachedSummary() {
+            String key = cacheKey();
+            if (key == null) {
+                return null;
+            }
+            try {
+                SummaryBridge result = summaryCache.read(key, readSource());
+                logger.debug("Cached summary for {}: {}", file, result == null ? "not found" : "found");
+                return result;
+            }
+            catch (IOException e) {
+                logger.debug("Cannot read source of {} to look up its cached summary", file, e);
+                return null;
+            }
+        }
+
+        /**
+         * @return the source as it is now, or null if it cannot be read or the summary would not be cached anyway
+         */
+        private byte @Nullable[] readSourceIfCached() {
+            if (cacheKey() == null) {
+                return null;
+            }
+            try {
+                return readSource();
+            }
+            catch (IOException e) {
+                logger.debug("Cannot read source of {} to store its summary", file, e);
+                return null;
+            }
+        }
+
+        private void storeSummary(byte @Nullable[] source, @Nullable SummaryBridge calculated) {
+            // from now on the actual summary is used
+            cachedSummary = null;
+            String key = cacheKey();
+            if (calculated == null || key == null || source == null) {
+                return;
+            }
+            summaryCache.write(key, source, calculated);
+        }
+
         public void reportParseErrors(List<Diagnostic> msgs) {
             parseMessages = msgs;
             sendDiagnostics();
@@ -142,13 +373,52 @@ public class FileFacts {
 
 
         public CompletableFuture<@Nullable SummaryBridge> getSummary() {
-            return summary.get().get();
+            CompletableFuture<@Nullable SummaryBridge> actual = summary.get().get();
+            CompletableFuture<@Nullable SummaryBridge> cached = cachedSummary;
+            if (cached == null || actual.isDone()) {
+                return actual;
+            }
+            return cached.thenCompose(c -> c == null || actual.isDone() ? actual : CompletableFuture.completedFuture(c));
         }
 
+        /**
+         * Check this file again, and after that the modules that (transitively) import it,
+         * layer by layer in topological order
+         */
         public void invalidate() {
+            long run = dependentsRun.incrementAndGet();
+            CompletableFuture<Void> checked = check();
+            // only the saved module is read again, the other modules are kept up to date by the watches on the source folders
+            CompletableFuture<Void> reindexed = CompletableFuture.runAsync(() -> refreshModule(file, true), exec);
+            CompletableFuture.allOf(checked, reindexed)
+                .handle((r, e) -> null)
+                .thenCompose(r -> checkDependents(run));
+        }
+
+        private CompletableFuture<Void> checkDependents(long run) {
+            List<List<ISourceLocation>> layers = imports.dependents(file);
+            logger.debug("Checking {} layers of modules that depend on {}", layers.size(), file);
+            CompletableFuture<Void> result = CompletableFuture.completedFuture(null);
+            for (List<ISourceLocation> layer : layers) {
+                result = result.thenCompose(r -> {
+                    if (dependentsRun.get() != run) {
+                        // the file was saved again, the newer run takes over
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return CompletableFuture.allOf(layer.stream()
+                        .map(f -> getFile(f).check().handle((c, e) -> null))
+                        .toArray(CompletableFuture[]::new));
+                });
+            }
+            return result;
+        }
+
+        private CompletableFuture<Void> check() {
+            // the source changed, so a summary from disk is outdated
+            cachedSummary = null;
             summary.invalidate();
             typeCheckerMessages.clear();
-            this.typeCheckResults.replace(
+            return this.typeCheckResults.replace(
                 rascal.compileFile(file, pcfg, exec)
                     .thenApply(m -> {
                         Map<ISourceLocation, List<Diagnostic>> result = new HashMap<>(m.size());
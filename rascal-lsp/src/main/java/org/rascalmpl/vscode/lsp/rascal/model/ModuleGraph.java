@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.rascalmpl.vscode.lsp.rascal.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.rascalmpl.values.parsetrees.ITree;
+import org.rascalmpl.values.parsetrees.TreeAdapter;
+
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IValue;
+
+/**
+ * The import (and extend) relation between the Rascal modules of the workspace, based on the headers of their parse trees.
+ *
+ * Modules are identified by their name, so if two projects contain a module with the same name, the last file we've seen wins.
+ */
+public class ModuleGraph {
+    private static final Logger logger = LogManager.getLogger(ModuleGraph.class);
+
+    // the fields below are guarded by this
+    private final Map<String, Set<String>> imports = new HashMap<>();
+    private final Map<String, Set<String>> importers = new HashMap<>();
+    private final Map<String, ISourceLocation> files = new HashMap<>();
+    private final Map<ISourceLocation, String> modules = new HashMap<>();
+
+    /**
+     * Update the imports of a file from its (latest) parse tree
+     */
+    public void update(ISourceLocation file, ITree tree) {
+        try {
+            if (TreeAdapter.isTop(tree)) {
+                tree = TreeAdapter.getStartTop(tree);
+            }
+            ITree header = TreeAdapter.getArg(tree, "header");
+            Set<String> moduleImports = new HashSet<>();
+            for (IValue imp : TreeAdapter.getListASTArgs(TreeAdapter.getArg(header, "imports"))) {
+                String kind = TreeAdapter.getConstructorName((ITree) imp);
+                if ("default".equals(kind) || "extend".equals(kind)) {
+                    ITree imported = TreeAdapter.getArg((ITree) imp, "module");
+                    moduleImports.add(moduleName(TreeAdapter.getArg(imported, "name")));
+                }
+            }
+            update(file, moduleName(TreeAdapter.getArg(header, "name")), moduleImports);
+        }
+        catch (RuntimeException e) {
+            logger.debug("Could not get the imports of {}", file, e);
+        }
+    }
+
+    /**
+     * Add the imports of a file, unless we already know about the file (for example because it's open in an editor)
+     */
+    public synchronized void addIfAbsent(ISourceLocation file, String module, Set<String> moduleImports) {
+        if (!modules.containsKey(file)) {
+            update(file, module, moduleImports);
+        }
+    }
+
+    private static String moduleName(ITree qualifiedName) {
+        // escaped names (like \syntax) are not escaped in the module name
+        return TreeAdapter.yield(qualifiedName).replace("\\", "");
+    }
+
+    public synchronized void update(ISourceLocation file, String module, Set<String> moduleImports) {
+        remove(file);
+        ISourceLocation previousFile = files.put(module, file);
+        if (previousFile != null) {
+            // another file declared the same module, it's overruled by this one
+            modules.remove(previousFile);
+            removeImports(module);
+        }
+        modules.put(file, module);
+        imports.put(module, moduleImports);
+        for (String imported : moduleImports) {
+            importers.computeIfAbsent(imported, k -> new HashSet<>()).add(module);
+        }
+    }
+
+    public synchronized void remove(ISourceLocation file) {
+        String module = modules.remove(file);
+        if (module != null) {
+            files.remove(module);
+            removeImports(module);
+        }
+    }
+
+    private void removeImports(String module) {
+        Set<String> old = imports.remove(module);
+        if (old != null) {
+            for (String imported : old) {
+                Set<String> others = importers.get(imported);
+                if (others != null) {
+                    others.remove(module);
+                    if (others.isEmpty()) {
+                        importers.remove(imported);
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized @Nullable String getModule(ISourceLocation file) {
+        return modules.get(file);
+    }
+
+    public synchronized @Nullable ISourceLocation getFile(String module) {
+        return files.get(module);
+    }
+
+    /**
+     * Calculate the files that (transitively) import a file, grouped in layers in topological order: a layer only
+     * depends on the file and earlier layers, so the files in a layer can be checked in parallel once the
+     * earlier layers are done. Modules that import each other in a cycle end up together in the same layer,
+     * after the layers of the modules that the cycle imports.
+     */
+    public synchronized List<List<ISourceLocation>> dependents(ISourceLocation file) {
+        String root = modules.get(file);
+        if (root == null) {
+            return Collections.emptyList();
+        }
+        Set<String> dependents = new LinkedHashSet<>();
+        Deque<String> todo = new ArrayDeque<>();
+        todo.push(root);
+        while (!todo.isEmpty()) {
+            for (String importer : importers.getOrDefault(todo.pop(), Collections.emptySet())) {
+                if (!importer.equals(root) && dependents.add(importer)) {
+                    todo.push(importer);
+                }
+            }
+        }
+
+        // the components come in reverse topological order, so the components a component imports already have a layer
+        Map<String, Integer> layerOf = new HashMap<>();
+        List<List<String>> layers = new ArrayList<>();
+        for (List<String> component : components(dependents)) {
+            int layer = 0;
+            for (String module : component) {
+                for (String imported : imports.getOrDefault(module, Collections.emptySet())) {
+                    Integer importedLayer = layerOf.get(imported);
+                    if (importedLayer != null) {
+                        layer = Math.max(layer, importedLayer + 1);
+                    }
+                }
+            }
+            for (String module : component) {
+                layerOf.put(module, layer);
+            }
+            while (layers.size() <= layer) {
+                layers.add(new ArrayList<>());
+            }
+            layers.get(layer).addAll(component);
+        }
+        List<List<ISourceLocation>> result = new ArrayList<>(layers.size());
+        for (List<String> layer : layers) {
+            result.add(toFiles(layer));
+        }
+        return result;
+    }
+
+    /**
+     * Tarjan's algorithm (without recursion, import chains can be long) for the strongly connected components
+     * of the import relation, restricted to a set of modules.
+     * @return the components, a component comes after all components it imports
+     */
+    private List<List<String>> components(Set<String> nodes) {
+        Map<String, Integer> index = new HashMap<>();
+        Map<String, Integer> lowLink = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        Set<String> onStack = new HashSet<>();
+        Deque<Visit> visits = new ArrayDeque<>();
+        List<List<String>> result = new ArrayList<>();
+        for (String start : nodes) {
+            if (index.containsKey(start)) {
+                continue;
+            }
+            visits.push(visit(start, nodes, index, lowLink, stack, onStack));
+            while (!visits.isEmpty()) {
+                Visit current = visits.peek();
+                if (current.imports.hasNext()) {
+                    String imported = current.imports.next();
+                    if (!index.containsKey(imported)) {
+                        visits.push(visit(imported, nodes, index, lowLink, stack, onStack));
+                    }
+                    else if (onStack.contains(imported)) {
+                        lowLink.put(current.module, Math.min(lowLink.get(current.module), index.get(imported)));
+                    }
+                    continue;
+                }
+                visits.pop();
+                Visit parent = visits.peek();
+                if (parent != null) {
+                    lowLink.put(parent.module, Math.min(lowLink.get(parent.module), lowLink.get(current.module)));
+                }
+                if (lowLink.get(current.module).equals(index.get(current.module))) {
+                    List<String> component = new ArrayList<>();
+                    String member;
+                    do {
+                        member = stack.pop();
+                        onStack.remove(member);
+                        component.add(member);
+                    } while (!member.equals(current.module));
+                    result.add(component);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Visit visit(String module, Set<String> nodes, Map<String, Integer> index, Map<String, Integer> lowLink,
+        Deque<String> stack, Set<String> onStack) {
+        index.put(module, index.size());
+        lowLink.put(module, index.get(module));
+        stack.push(module);
+        onStack.add(module);
+        List<String> moduleImports = new ArrayList<>();
+        for (String imported : imports.getOrDefault(module, Collections.emptySet())) {
+            if (nodes.contains(imported)) {
+                moduleImports.add(imported);
+            }
+        }
+        return new Visit(module, moduleImports.iterator());
+    }
+
+    private static final class Visit {
+        private final String module;
+        private final Iterator<String> imports;
+
+        Visit(String module, Iterator<String> imports) {
+            this.module = module;
+            this.imports = imports;
+        }
+    }
+
+    private List<ISourceLocation> toFiles(Iterable<String> layer) {
+        List<ISourceLocation> result = new ArrayList<>();
+        for (String module : layer) {
+            ISourceLocation f = files.get(module);
+            if (f != null) {
+                result.add(f);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.rascalmpl.vscode.lsp.rascal.model;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * The name and imports of a Rascal module, scanned from its source text without parsing it.
+ *
+ * The scan stops at the first declaration after the imports, so typically only the first few lines of a file are read.
+ * Syntax definitions between the imports are skipped, external imports (<code>import X = |...|;</code>) are ignored.
+ */
+public class ModuleHeader {
+    private final String name;
+    private final Set<String> imports;
+
+    private ModuleHeader(String name, Set<String> imports) {
+        this.name = name;
+        this.imports = imports;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Set<String> getImports() {
+        return Collections.unmodifiableSet(imports);
+    }
+
+    /**
+     * @return the header of the module, or null if the source doesn't start with a module header
+     */
+    public static @Nullable ModuleHeader scan(Reader source) throws IOException {
+        Tokens tokens = new Tokens(source);
+        String token = tokens.next();
+        // skip the tags in front of the header
+        while (token != null && !"module".equals(token)) {
+            token = tokens.next();
+        }
+        String name = tokens.next();
+        if (name == null || !isName(name)) {
+            return null;
+        }
+        Set<String> imports = new HashSet<>();
+        token = tokens.next();
+        if ("[".equals(token)) {
+            // module parameters
+            token = tokens.next();
+        }
+        while (token != null) {
+            switch (token) {
+                case "import":
+                case "extend": {
+                    String imported = tokens.next();
+                    token = tokens.next();
+                    if ("=".equals(token)) {
+                        // an external import, its location can contain a ;
+                        token = tokens.next();
+                        if ("|".equals(token)) {
+                            tokens.skipUntil('|');
+                        }
+                    }
+                    else if (imported != null && isName(imported)) {
+                        imports.add(moduleName(imported));
+                    }
+                    break;
+                }
+                case "start":
+                case "syntax":
+                case "lexical":
+                case "layout":
+                case "keyword":
+                    token = tokens.next();
+                    break;
+                default:
+                    // the first declaration, so the header is done
+                    return new ModuleHeader(moduleName(name), imports);
+            }
+            while (token != null && !";".equals(token)) {
+                token = tokens.next();
+            }
+            token = tokens.next();
+        }
+        return new ModuleHeader(moduleName(name), imports);
+    }
+
+    private static boolean isName(String token) {
+        return isNameChar(token.charAt(0));
+    }
+
+    private static boolean isNameChar(int c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '\\' || c == ':';
+    }
+
+    private static String moduleName(String qualifiedName) {
+        // escaped names (like \syntax) are not escaped in the module name
+        return qualifiedName.replace("\\", "");
+    }
+
+    /**
+     * Splits the source in names and single character tokens, without the layout, comments and the contents
+     * of strings, tags and character classes
+     */
+    private static class Tokens {
+        private final Reader source;
+        private int lookahead;
+
+        Tokens(Reader source) throws IOException {
+            this.source = source;
+            this.lookahead = source.read();
+        }
+
+        private int read() throws IOException {
+            int result = lookahead;
+            lookahead = source.read();
+            return result;
+        }
+
+        @Nullable String next() throws IOException {
+            while (true) {
+                int c = read();
+                if (c == -1) {
+                    return null;
+                }
+                if (Character.isWhitespace(c)) {
+                    continue;
+                }
+                if (c == '/' && lookahead == '/') {
+                    skipLine();
+                    continue;
+                }
+                if (c == '/' && lookahead == '*') {
+                    read();
+                    skipBlockComment();
+                    continue;
+                }
+                if (isNameChar(c)) {
+                    StringBuilder name = new StringBuilder().appendCodePoint(c);
+                    while (lookahead != -1 && isNameChar(lookahead)) {
+                        name.appendCodePoint(read());
+                    }
+                    return name.toString();
+                }
+                switch (c) {
+                    case '"':
+                    case '\'':
+                        skipUntil(c);
+                        break;
+                    case '[':
+                        skipNested('[', ']');
+                        break;
+                    case '{':
+                        skipNested('{', '}');
+                        break;
+                    case '@':
+                        // the name of a tag, its contents are skipped as a nested {...} token
+                        while (lookahead != -1 && isNameChar(lookahead)) {
+                            read();
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                return String.valueOf((char) c);
+            }
+        }
+
+        private void skipLine() throws IOException {
+            int c;
+            do {
+                c = read();
+            } while (c != -1 && c != '\n');
+        }
+
+        private void skipBlockComment() throws IOException {
+            int c = read();
+            while (c != -1 && !(c == '*' && lookahead == '/')) {
+                c = read();
+            }
+            read();
+        }
+
+        private void skipUntil(int end) throws IOException {
+            int c = read();
+            while (c != -1 && c != end) {
+                if (c == '\\') {
+                    read();
+                }
+                c = read();
+            }
+        }
+
+        private void skipNested(int open, int close) throws IOException {
+            int depth = 1;
+            while (depth > 0) {
+                int c = read();
+                if (c == -1) {
+                    return;
+                }
+                if (c == '\\') {
+                    read();
+                }
+                else if (c == open) {
+                    depth++;
+                }
+                else if (c == close) {
+                    depth--;
+                }
+            }
+        }
+    }
+}
@@ -26,7 +26,6 @@
  */
 package org.rascalmpl.vscode.lsp.rascal.model;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
@@ -39,9 +38,8 @@ import org.rascalmpl.values.IRascalValueFactory;
 import org.rascalmpl.values.ValueFactoryFactory;
 import org.rascalmpl.vscode.lsp.util.Lazy;
 import org.rascalmpl.vscode.lsp.util.locations.ColumnMaps;
-import org.rascalmpl.vscode.lsp.util.locations.IRangeMap;
 import org.rascalmpl.vscode.lsp.util.locations.Locations;
-import org.rascalmpl.vscode.lsp.util.locations.impl.TreeMapLookup;
+import org.rascalmpl.vscode.lsp.util.locations.impl.PackedRangeMap;
 
 import io.usethesource.vallang.IConstructor;
 import io.usethesource.vallang.IMap;
@@ -68,55 +66,64 @@ public class SummaryBridge {
     }
 
     private final IWithKeywordParameters<? extends IConstructor> data;
-    private final Lazy<IRangeMap<List<Location>>> definitions;
-    private final Lazy<IRangeMap<String>> typeNames;
+    private final Lazy<PackedRangeMap<List<Location>>> definitions;
+    private final Lazy<PackedRangeMap<String>> typeNames;
 
 
     public SummaryBridge() {
         this.data = EMPTY_SUMMARY.asWithKeywordParameters();
-        this.definitions = TreeMapLookup::new;
-        this.typeNames = TreeMapLookup::new;
+        this.definitions = PackedRangeMap::empty;
+        this.typeNames = PackedRangeMap::empty;
+    }
+
+    /**
+     * A summary of which the ranges are already translated, for example read back from the {@link SummaryCache}
+     */
+    public SummaryBridge(PackedRangeMap<List<Location>> definitions, PackedRangeMap<String> typeNames) {
+        this(() -> definitions, () -> typeNames);
+    }
+
+    SummaryBridge(Lazy<PackedRangeMap<List<Location>>> definitions, Lazy<PackedRangeMap<String>> typeNames) {
+        this.data = EMPTY_SUMMARY.asWithKeywordParameters();
+        this.definitions = definitions;
+        this.typeNames = typeNames;
     }
 
     public SummaryBridge(IConstructor summary, ColumnMaps cm) {
         this.data = summary.asWithKeywordParameters();
-        definitions = Lazy.defer(() -> translateRelation(getKWFieldSet(data, "useDef"), v -> Locations.toLSPLocation((ISourceLocation)v, cm), cm));
+        definitions = Lazy.defer(() -> translateRelation(getKWFieldSet(data, "useDef"), toLSPLocation(cm), cm));
         typeNames = Lazy.defer(() -> translateMap(getKWFieldMap(data, "locationTypes"), v -> ((IString)v).getValue(), cm));
 
     }
 
-    private static <T> IRangeMap<List<T>> translateRelation(ISet binaryRel, Function<IValue, T> valueMapper, ColumnMaps cm) {
-        TreeMapLookup<List<T>> result = new TreeMapLookup<>();
+    private static <T> PackedRangeMap<List<T>> translateRelation(ISet binaryRel, Function<IValue, T> valueMapper, ColumnMaps cm) {
+        PackedRangeMap.Builder<T> result = PackedRangeMap.builder();
+        Locations.Converter ranges = Locations.converter(cm);
         for (IValue v: binaryRel) {
             ITuple row = (ITuple)v;
-            Range from = Locations.toRange((ISourceLocation)row.get(0), cm);
-            T to = valueMapper.apply(row.get(1));
-            List<T> existing = result.getExact(from);
-            if (existing == null) {
-                // most cases there is only a single entry, to so save a lot of memory, we store a singleton list to start with
-                result.put(from, Collections.singletonList(to));
-            }
-            else if (existing.size() == 1) {
-                // we had a singleton list in there, so let's replace it with a regular last
-                existing = new ArrayList<>(existing);
-                result.put(from, existing);
-                existing.add(to);
-            }
-            else {
-                existing.add(to);
-            }
+            result.put(ranges.toRange((ISourceLocation)row.get(0)), valueMapper.apply(row.get(1)));
         }
-        return result;
+        // ranges with multiple values are grouped into a list when the map is built
+        return result.buildGrouped();
     }
 
-    private static <T> IRangeMap<T> translateMap(IMap binaryMap, Function<IValue, T> valueMapper, ColumnMaps cm) {
-        TreeMapLookup<T> result = new TreeMapLookup<>();
+    private static <T> PackedRangeMap<T> translateMap(IMap binaryMap, Function<IValue, T> valueMapper, ColumnMaps cm) {
+        PackedRangeMap.Builder<T> result = PackedRangeMap.builder();
+        Locations.Converter ranges = Locations.converter(cm);
         binaryMap.entryIterator().forEachRemaining(e -> {
-            Range from = Locations.toRange((ISourceLocation)e.getKey(), cm);
+            Range from = ranges.toRange((ISourceLocation)e.getKey());
             T to = valueMapper.apply(e.getValue());
             result.put(from, to);
         });
-        return result;
+        return result.build();
+    }
+
+    /**
+     * translate the values of a relation in one pass, so the converter is created per pass
+     */
+    private static Function<IValue, Location> toLSPLocation(ColumnMaps cm) {
+        Locations.Converter locations = Locations.converter(cm);
+        return v -> locations.toLSPLocation((ISourceLocation)v);
     }
 
     private static ISet getKWFieldSet(IWithKeywordParameters<? extends IConstructor> data, String name) {
@@ -155,4 +162,12 @@ public class SummaryBridge {
     public String getTypeName(Range cursor) {
         return replaceNull(typeNames.get().lookup(cursor), "");
     }
+
+    PackedRangeMap<List<Location>> getDefinitions() {
+        return definitions.get();
+    }
+
+    PackedRangeMap<String> getTypeNames() {
+        return typeNames.get();
+    }
 }
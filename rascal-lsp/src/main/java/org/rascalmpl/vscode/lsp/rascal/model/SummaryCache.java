@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.rascalmpl.vscode.lsp.rascal.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.lsp4j.Location;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.rascalmpl.vscode.lsp.util.Lazy;
+import org.rascalmpl.vscode.lsp.util.locations.impl.PackedRangeMap;
+
+/**
+ * Keeps translated summaries on disk, so that after a restart of the server definitions and types are
+ * available right away, while the actual summary is recalculated in the background.
+ *
+ * There is a single file per module (and path config), which also stores a hash of the source it was calculated from,
+ * a summary is only read back if the source is still the same. The file is memory-mapped on read, and its ranges
+ * are only decoded on the first lookup.
+ *
+ * File layout (big-endian): magic, version, source hash, offsets of the three sections, and then
+ * the string table (locations and type names), the definitions and the type names.
+ */
+public class SummaryCache {
+    private static final Logger logger = LogManager.getLogger(SummaryCache.class);
+
+    private static final int MAGIC = 0x5253_554D; // RSUM
+    private static final int VERSION = 1;
+    private static final int HASH_LENGTH = 32;
+    private static final int HEADER_LENGTH = 4 + 4 + HASH_LENGTH + (3 * 4);
+
+    private final Path folder;
+
+    public SummaryCache(Path folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * The cache folder can be configured via the rascal.lsp.summaryCache property
+     */
+    public static SummaryCache inUserHome() {
+        String configured = System.getProperty("rascal.lsp.summaryCache");
+        if (configured != null) {
+            return new SummaryCache(Paths.get(configured));
+        }
+        return new SummaryCache(Paths.get(System.getProperty("user.home"), ".rascal", "lsp-summaries"));
+    }
+
+    /**
+     * @param key identifies the module, for example its name and the path config
+     * @param source the current contents of the module
+     * @return the summary that was stored for this source, or null if there is none
+     */
+    public @Nullable SummaryBridge read(String key, byte[] source) {
+        Path file = fileFor(key);
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            data = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+        catch (IOException e) {
+            logger.debug("Cannot read cached summary {}", file, e);
+            return null;
+        }
+        try {
+            if (data.getInt() != MAGIC || data.getInt() != VERSION) {
+                logger.debug("Ignoring cached summary in an old format: {}", file);
+                return null;
+            }
+            byte[] hash = new byte[HASH_LENGTH];
+            data.get(hash);
+            if (!Arrays.equals(hash, hash(source))) {
+                return null;
+            }
+            int stringsAt = data.getInt();
+            int definitionsAt = data.getInt();
+            int typesAt = data.getInt();
+            Lazy<String[]> strings = Lazy.defer(() -> readStrings(section(data, stringsAt)));
+            return new SummaryBridge(
+                Lazy.defer(() -> readDefinitions(section(data, definitionsAt), strings.get())),
+                Lazy.defer(() -> readTypeNames(section(data, typesAt), strings.get())));
+        }
+        catch (RuntimeException e) {
+            logger.debug("Cannot decode cached summary {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Store the summary of a module, replacing the summary of an older version of the source
+     */
+    public void write(String key, byte[] source, SummaryBridge summary) {
+        Path file = fileFor(key);
+        try {
+            Files.createDirectories(folder);
+            Path temp = Files.createTempFile(folder, "summary", ".tmp");
+            try {
+                Files.write(temp, encode(hash(source), summary));
+                try {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        catch (IOException e) {
+            // for example on Windows, when the old version is still mapped
+            logger.debug("Cannot write cached summary {}", file, e);
+        }
+    }
+
+    private Path fileFor(String key) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : hash(key.getBytes(StandardCharsets.UTF_8))) {
+            name.append(String.format("%02x", b));
+        }
+        return folder.resolve(name.append(".summary").toString());
+    }
+
+    private static byte[] hash(byte[] contents) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(contents);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 should always be available", e);
+        }
+    }
+
+    private static byte[] encode(byte[] hash, SummaryBridge summary) throws IOException {
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+
+        ByteArrayOutputStream definitionBytes = new ByteArrayOutputStream();
+        DataOutputStream definitions = new DataOutputStream(definitionBytes);
+        PackedRangeMap<List<Location>> definitionMap = summary.getDefinitions();
+        definitions.writeInt(definitionMap.size());
+        definitionMap.forEach((range, locations) -> unchecked(() -> {
+            writeRange(definitions, range);
+            definitions.writeInt(locations.size());
+            for (Location l : locations) {
+                definitions.writeInt(indexOf(l.getUri(), stringIndex, strings));
+                writeRange(definitions, l.getRange());
+            }
+        }));
+
+        ByteArrayOutputStream typeBytes = new ByteArrayOutputStream();
+        DataOutputStream types = new DataOutputStream(typeBytes);
+        PackedRangeMap<String> typeMap = summary.getTypeNames();
+        types.writeInt(typeMap.size());
+        typeMap.forEach((range, name) -> unchecked(() -> {
+            writeRange(types, range);
+            types.writeInt(indexOf(name, stringIndex, strings));
+        }));
+
+        ByteArrayOutputStream stringBytes = new ByteArrayOutputStream();
+        DataOutputStream stringOut = new DataOutputStream(stringBytes);
+        stringOut.writeInt(strings.size());
+        for (String s : strings) {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            stringOut.writeInt(utf8.length);
+            stringOut.write(utf8);
+        }
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream(HEADER_LENGTH + stringBytes.size() + definitionBytes.size() + typeBytes.size());
+        DataOutputStream out = new DataOutputStream(result);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(hash);
+        out.writeInt(HEADER_LENGTH);
+        out.writeInt(HEADER_LENGTH + stringBytes.size());
+        out.writeInt(HEADER_LENGTH + stringBytes.size() + definitionBytes.size());
+        stringBytes.writeTo(out);
+        definitionBytes.writeTo(out);
+        typeBytes.writeTo(out);
+        out.flush();
+        return result.toByteArray();
+    }
+
+    private static int indexOf(String s, Map<String, Integer> index, List<String> strings) {
+        return index.computeIfAbsent(s, k -> {
+            strings.add(k);
+            return strings.size() - 1;
+        });
+    }
+
+    private static void writeRange(DataOutputStream out, Range r) throws IOException {
+        out.writeInt(r.getStart().getLine());
+        out.writeInt(r.getStart().getCharacter());
+        out.writeInt(r.getEnd().getLine());
+        out.writeInt(r.getEnd().getCharacter());
+    }
+
+    private static ByteBuffer section(ByteBuffer data, int offset) {
+        ByteBuffer result = data.duplicate();
+        result.position(offset);
+        return result;
+    }
+
+    private static String[] readStrings(ByteBuffer data) {
+        String[] result = new String[data.getInt()];
+        for (int i = 0; i < result.length; i++) {
+            byte[] utf8 = new byte[data.getInt()];
+            data.get(utf8);
+            result[i] = new String(utf8, StandardCharsets.UTF_8);
+        }
+        return result;
+    }
+
+    private static PackedRangeMap<List<Location>> readDefinitions(ByteBuffer data, String[] strings) {
+        int size = data.getInt();
+        PackedRangeMap.Builder<List<Location>> result = PackedRangeMap.builder();
+        for (int i = 0; i < size; i++) {
+            Range from = readRange(data);
+            int count = data.getInt();
+            List<Location> locations = new ArrayList<>(count);
+            for (int l = 0; l < count; l++) {
+                String uri = strings[data.getInt()];
+                locations.add(new Location(uri, readRange(data)));
+            }
+            result.put(from, locations);
+        }
+        return result.build();
+    }
+
+    private static PackedRangeMap<String> readTypeNames(ByteBuffer data, String[] strings) {
+        int size = data.getInt();
+        PackedRangeMap.Builder<String> result = PackedRangeMap.builder();
+        for (int i = 0; i < size; i++) {
+            Range from = readRange(data);
+            result.put(from, strings[data.getInt()]);
+        }
+        return result.build();
+    }
+
+    private static Range readRange(ByteBuffer data) {
+        return new Range(new Position(data.getInt(), data.getInt()), new Position(data.getInt(), data.getInt()));
+    }
+
+    @FunctionalInterface
+    private interface IOAction {
+        void run() throws IOException;
+    }
+
+    /** the entries are written to in-memory streams, so they won't actually throw */
+    private static void unchecked(IOAction action) {
+        try {
+            action.run();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.rascalmpl.vscode.lsp.util;
+
+import java.util.Collections;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.SemanticTokens;
+import org.eclipse.lsp4j.SemanticTokensCapabilities;
+import org.eclipse.lsp4j.SemanticTokensDelta;
+import org.eclipse.lsp4j.SemanticTokensWithRegistrationOptions;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.rascalmpl.values.parsetrees.ITree;
+
+/**
+ * Remembers the tokens of a parse tree, so that repeated requests for an unchanged document
+ * (VS Code asks again on scroll, focus and theme changes) do not tokenize the tree again.
+ *
+ * Entries are keyed on the identity of the tree, and held weakly: a TextDocumentState only keeps its
+ * most recent tree, so as soon as it produces a new one, the entry of the old tree is dropped.
+ */
+public class CachingSemanticTokens implements ISemanticTokens {
+    private final ISemanticTokens tokenizer;
+    /** full tokens of a tree */
+    private final Cache<ITree, SemanticTokens> fullTokens = Caffeine.newBuilder()
+        .weakKeys()
+        .maximumSize(256)
+        .build();
+    /** result id of the last response for a tree, full or delta */
+    private final Cache<ITree, String> latestResult = Caffeine.newBuilder()
+        .weakKeys()
+        .maximumSize(256)
+        .build();
+
+    public CachingSemanticTokens(ISemanticTokens tokenizer) {
+        this.tokenizer = tokenizer;
+    }
+
+    @Override
+    public SemanticTokensCapabilities capabilities() {
+        return tokenizer.capabilities();
+    }
+
+    @Override
+    public SemanticTokensWithRegistrationOptions options() {
+        return tokenizer.options();
+    }
+
+    @Override
+    public SemanticTokens semanticTokensFull(ITree tree) {
+        @Nullable SemanticTokens cached = fullTokens.getIfPresent(tree);
+        SemanticTokens result;
+        if (cached == null) {
+            result = tokenizer.semanticTokensFull(tree);
+            fullTokens.put(tree, result);
+        }
+        else {
+            // the tokenizer can have dropped the original result id after a delta against it
+            result = tokenizer.reissue(cached);
+        }
+        latestResult.put(tree, result.getResultId());
+        return result;
+    }
+
+    @Override
+    public Either<SemanticTokens, SemanticTokensDelta> semanticTokensFullDelta(String previousDelta, ITree tree) {
+        @Nullable String latest = latestResult.getIfPresent(tree);
+        if (latest != null && latest.equals(previousDelta)) {
+            // the client already has the tokens of this tree
+            return Either.forRight(new SemanticTokensDelta(Collections.emptyList(), latest));
+        }
+        Either<SemanticTokens, SemanticTokensDelta> result = tokenizer.semanticTokensFullDelta(previousDelta, tree);
+        if (result.isLeft()) {
+            fullTokens.put(tree, result.getLeft());
+            latestResult.put(tree, result.getLeft().getResultId());
+        }
+        else {
+            latestResult.put(tree, result.getRight().getResultId());
+        }
+        return result;
+    }
+
+    @Override
+    public SemanticTokens semanticTokensRange(Range range, ITree tree) {
+        return tokenizer.semanticTokensRange(range, tree);
+    }
+
+    @Override
+    public SemanticTokens reissue(SemanticTokens earlier) {
+        return tokenizer.reissue(earlier);
+    }
+}
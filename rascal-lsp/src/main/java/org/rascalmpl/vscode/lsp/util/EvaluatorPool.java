@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.rascalmpl.vscode.lsp.util;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.rascalmpl.interpreter.Evaluator;
+
+/**
+ * A bounded set of evaluators for the same role (with the same modules imported), so that calls
+ * for different files can run in parallel. An evaluator is leased by a single call at a time, and
+ * has to be returned via {@link #release(Evaluator)}.
+ *
+ * The pool starts with a single evaluator, and only grows (up to its maximum size) when calls have to
+ * wait. Evaluators that stay idle for longer than the idle timeout are dropped again, except for the last one.
+ */
+public class EvaluatorPool {
+    private static final Logger logger = LogManager.getLogger(EvaluatorPool.class);
+
+    private static final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Evaluator pool reaper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String label;
+    private final int maxSize;
+    private final long idleNanos;
+    private final Function<String, CompletableFuture<Evaluator>> factory;
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+    // the fields below are guarded by this
+    /** most recently returned evaluator is at the end */
+    private final Deque<IdleEvaluator> idle = new ArrayDeque<>();
+    private final Deque<CompletableFuture<Evaluator>> waiting = new ArrayDeque<>();
+    /** evaluators that exist or are being created */
+    private int size = 0;
+    private int creating = 0;
+    private int created = 0;
+
+    /**
+     * @param factory creates a new evaluator, given a label for its log
+     */
+    public EvaluatorPool(String label, int maxSize, Duration idleTimeout, Function<String, CompletableFuture<Evaluator>> factory) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool needs room for at least one evaluator: " + maxSize);
+        }
+        this.label = label;
+        this.maxSize = maxSize;
+        this.idleNanos = idleTimeout.toNanos();
+        this.factory = factory;
+        synchronized (this) {
+            // like before, the first evaluator is prepared right away
+            grow();
+        }
+        reaper.scheduleWithFixedDelay(this::shrink, idleNanos, idleNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get exclusive access to an evaluator, it has to be returned via {@link #release(Evaluator)}.
+     * The future completes exceptionally if the pool is empty because no evaluator could be created.
+     */
+    public synchronized CompletableFuture<Evaluator> lease() {
+        IdleEvaluator available = idle.pollLast();
+        if (available != null) {
+            // the most recently used one, so that the others stay idle and can be dropped
+            return CompletableFuture.completedFuture(available.evaluator);
+        }
+        CompletableFuture<Evaluator> result = new CompletableFuture<>();
+        waiting.addLast(result);
+        if (waiting.size() > creating && size < maxSize) {
+            grow();
+        }
+        return result;
+    }
+
+    public void release(Evaluator evaluator) {
+        while (true) {
+            CompletableFuture<Evaluator> next;
+            synchronized (this) {
+                next = waiting.pollFirst();
+                if (next == null) {
+                    idle.addLast(new IdleEvaluator(evaluator, System.nanoTime()));
+                    return;
+                }
+            }
+            if (next.complete(evaluator)) {
+                return;
+            }
+            // this lease was cancelled in the meantime, try the next one
+        }
+    }
+
+    /**
+     * Completes once the first evaluator is available, or exceptionally if it could not be created
+     */
+    public CompletableFuture<Void> ready() {
+        return ready;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /** number of evaluators in the pool, including the ones that are being created */
+    public synchronized int size() {
+        return size;
+    }
+
+    /** lock on this should be held */
+    private void grow() {
+        size++;
+        creating++;
+        created++;
+        String name = created == 1 ? label : (label + " #" + created);
+        logger.debug("Creating evaluator {}", name);
+        factory.apply(name).whenComplete(this::created);
+    }
+
+    private void created(@Nullable Evaluator evaluator, @Nullable Throwable error) {
+        if (evaluator != null) {
+            synchronized (this) {
+                creating--;
+            }
+            release(evaluator);
+            ready.complete(null);
+            return;
+        }
+        logger.error("Could not create an evaluator for {}", label, error);
+        Deque<CompletableFuture<Evaluator>> failed = new ArrayDeque<>();
+        boolean empty;
+        synchronized (this) {
+            creating--;
+            size--;
+            empty = size == 0;
+            if (empty) {
+                // nothing will be released anymore, so the waiting calls will not get an evaluator
+                failed.addAll(waiting);
+                waiting.clear();
+            }
+        }
+        Throwable cause = error != null ? error : new IllegalStateException("No evaluator for " + label);
+        failed.forEach(f -> f.completeExceptionally(cause));
+        if (empty) {
+            ready.completeExceptionally(cause);
+        }
+    }
+
+    private synchronized void shrink() {
+        long now = System.nanoTime();
+        IdleEvaluator oldest = idle.peekFirst();
+        while (oldest != null && size > 1 && now - oldest.since > idleNanos) {
+            idle.pollFirst();
+            size--;
+            logger.debug("Dropping an idle evaluator of {}, {} left", label, size);
+            oldest = idle.peekFirst();
+        }
+    }
+
+    private static final class IdleEvaluator {
+        private final Evaluator evaluator;
+        private final long since;
+
+        IdleEvaluator(Evaluator evaluator, long since) {
+            this.evaluator = evaluator;
+            this.since = since;
+        }
+    }
+}
@@ -55,27 +55,43 @@ import io.usethesource.vallang.IValue;
 public class EvaluatorUtil {
     private static final Logger logger = LogManager.getLogger(EvaluatorUtil.class);
 
+    /**
+     * Run a call on a single evaluator, calls on the same evaluator take turns
+     */
     public static <T> InterruptibleFuture<T> runEvaluator(String task, Future<Evaluator> eval, Function<Evaluator, T> call, T defaultResult, Executor exec) {
+        return runEvaluator(task, (interrupted, runningEvaluator) -> {
+            Evaluator actualEval = eval.get();
+            synchronized (actualEval) {
+                return call(actualEval, interrupted, runningEvaluator, call, defaultResult);
+            }
+        }, defaultResult, exec);
+    }
+
+    /**
+     * Run a call on an evaluator leased from a pool, so calls can run in parallel as long as the pool has evaluators
+     */
+    public static <T> InterruptibleFuture<T> runEvaluator(String task, EvaluatorPool pool, Function<Evaluator, T> call, T defaultResult, Executor exec) {
+        return runEvaluator(task, (interrupted, runningEvaluator) -> {
+            Evaluator actualEval = pool.lease().get();
+            try {
+                return call(actualEval, interrupted, runningEvaluator, call, defaultResult);
+            } finally {
+                pool.release(actualEval);
+            }
+        }, defaultResult, exec);
+    }
+
+    @FunctionalInterface
+    private interface EvaluatorCall<T> {
+        T run(AtomicBoolean interrupted, AtomicReference<@Nullable Evaluator> runningEvaluator) throws Exception;
+    }
+
+    private static <T> InterruptibleFuture<T> runEvaluator(String task, EvaluatorCall<T> evaluatorCall, T defaultResult, Executor exec) {
         AtomicBoolean interrupted = new AtomicBoolean(false);
         AtomicReference<@Nullable Evaluator> runningEvaluator = new AtomicReference<>(null);
         return new InterruptibleFuture<>(CompletableFuture.supplyAsync(() -> {
             try {
-                Evaluator actualEval = eval.get();
-
-                synchronized (actualEval) {
-                    try {
-                        runningEvaluator.set(actualEval);
-                        if (interrupted.get()) {
-                            return defaultResult;
-                        }
-                        return call.apply(actualEval);
-                    } catch (InterruptException e) {
-                        return defaultResult;
-                    } finally {
-                        actualEval.__setInterrupt(false);
-                        runningEvaluator.set(null);
-                    }
-                }
+                return evaluatorCall.run(interrupted, runningEvaluator);
             } catch (Throw e) {
                 logger.error("Internal error during {}\n{}: {}\n{}", task, e.getLocation(), e.getMessage(),
                         e.getTrace());
@@ -94,6 +110,21 @@ public class EvaluatorUtil {
         });
     }
 
+    private static <T> T call(Evaluator actualEval, AtomicBoolean interrupted, AtomicReference<@Nullable Evaluator> runningEvaluator, Function<Evaluator, T> call, T defaultResult) {
+        try {
+            runningEvaluator.set(actualEval);
+            if (interrupted.get()) {
+                return defaultResult;
+            }
+            return call.apply(actualEval);
+        } catch (InterruptException e) {
+            return defaultResult;
+        } finally {
+            actualEval.__setInterrupt(false);
+            runningEvaluator.set(null);
+        }
+    }
+
     public static CompletableFuture<Evaluator> makeFutureEvaluator(ExecutorService exec, String label, PathConfig pcfg, final String... imports) {
         return CompletableFuture.supplyAsync(() -> {
             Logger customLog = LogManager.getLogger("Evaluator: " + label);
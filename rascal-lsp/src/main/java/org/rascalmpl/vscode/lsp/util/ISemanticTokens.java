@@ -40,4 +40,9 @@ public interface ISemanticTokens {
     SemanticTokens semanticTokensFull(ITree tree);
 	Either<SemanticTokens, SemanticTokensDelta> semanticTokensFullDelta(String previousDelta, ITree tree);
 	SemanticTokens semanticTokensRange(Range range, ITree tree);
+	/**
+	 * Serve earlier full tokens again under a fresh result id, so that a delta can be calculated against them,
+	 * even if their original result id has been used for a delta already
+	 */
+	SemanticTokens reissue(SemanticTokens earlier);
 }
\ No newline at end of file
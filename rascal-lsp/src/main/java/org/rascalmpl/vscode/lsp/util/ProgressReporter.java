@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.rascalmpl.vscode.lsp.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.lsp4j.ClientCapabilities;
+import org.eclipse.lsp4j.ProgressParams;
+import org.eclipse.lsp4j.WindowClientCapabilities;
+import org.eclipse.lsp4j.WorkDoneProgressBegin;
+import org.eclipse.lsp4j.WorkDoneProgressCreateParams;
+import org.eclipse.lsp4j.WorkDoneProgressEnd;
+import org.eclipse.lsp4j.WorkDoneProgressNotification;
+import org.eclipse.lsp4j.WorkDoneProgressReport;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.eclipse.lsp4j.services.LanguageClient;
+
+/**
+ * Reports a set of named background tasks (like loading evaluators) to the client as a single work done progress,
+ * so that the user can see when all features are ready.
+ */
+public class ProgressReporter {
+    private static final Logger logger = LogManager.getLogger(ProgressReporter.class);
+
+    private final LanguageClient client;
+    private final Either<String, Integer> token = Either.forLeft(UUID.randomUUID().toString());
+    private final int total;
+    // guarded by this
+    private int done = 0;
+    private final List<String> failed = new ArrayList<>();
+
+    private ProgressReporter(LanguageClient client, int total) {
+        this.client = client;
+        this.total = total;
+    }
+
+    public static void report(LanguageClient client, ClientCapabilities capabilities, String title, Map<String, ? extends CompletableFuture<?>> tasks) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        if (!supportsProgress(capabilities)) {
+            logger.debug("Client does not support work done progress, not reporting {}", title);
+            return;
+        }
+        ProgressReporter progress = new ProgressReporter(client, tasks.size());
+        client.createProgress(new WorkDoneProgressCreateParams(progress.token))
+            .thenRun(() -> {
+                progress.begin(title, "Loading " + String.join(", ", tasks.keySet()));
+                tasks.forEach((name, task) -> task.whenComplete((r, e) -> progress.finished(name, e)));
+            })
+            .exceptionally(e -> {
+                logger.debug("Client does not accept progress for {}", title, e);
+                return null;
+            });
+    }
+
+    private static boolean supportsProgress(ClientCapabilities capabilities) {
+        WindowClientCapabilities window = capabilities.getWindow();
+        return window != null && Boolean.TRUE.equals(window.getWorkDoneProgress());
+    }
+
+    private synchronized void begin(String title, String message) {
+        WorkDoneProgressBegin begin = new WorkDoneProgressBegin();
+        begin.setTitle(title);
+        begin.setMessage(message);
+        begin.setPercentage(0);
+        begin.setCancellable(false);
+        notify(begin);
+    }
+
+    private synchronized void finished(String name, @Nullable Throwable error) {
+        done++;
+        if (error != null) {
+            failed.add(name);
+        }
+        if (done < total) {
+            WorkDoneProgressReport report = new WorkDoneProgressReport();
+            report.setMessage(name + (error == null ? " ready" : " failed"));
+            report.setPercentage((done * 100) / total);
+            notify(report);
+        }
+        else {
+            WorkDoneProgressEnd end = new WorkDoneProgressEnd();
+            end.setMessage(failed.isEmpty() ? "Ready" : ("Failed to load " + String.join(", ", failed)));
+            notify(end);
+        }
+    }
+
+    private void notify(WorkDoneProgressNotification notification) {
+        client.notifyProgress(new ProgressParams(token, Either.forLeft(notification)));
+    }
+}
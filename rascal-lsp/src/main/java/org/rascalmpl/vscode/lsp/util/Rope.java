@@ -0,0 +1,434 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.rascalmpl.vscode.lsp.util;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * An immutable text buffer that supports cheap range replacements.
+ *
+ * The text is stored as a balanced tree of small chunks, so an edit only rebuilds the path to
+ * the edited chunks, and older versions stay valid (and shareable between threads) while a
+ * newer version is being parsed. Line breaks are counted per node, so translating an LSP
+ * line/character position to an offset is logarithmic as well.
+ *
+ * Lines are split on '\n' only, VS Code normalizes documents to either LF or CRLF line endings.
+ */
+public final class Rope implements CharSequence {
+    private static final int MAX_LEAF = 2048;
+    private static final int MAX_DEPTH = 64;
+    private static final Rope EMPTY = new Rope(new Leaf(""));
+
+    private final Node root;
+    /** last leaf we've read from, makes sequential scans via charAt cheap */
+    @SuppressWarnings("java:S3077") // the cursor is immutable, so volatile is enough
+    private volatile @Nullable LeafCursor cursor;
+    /**
+     * The parsers need the text as a single array or string, so the flattened versions are kept (as long as memory allows),
+     * and a version that is parsed more than once is only copied once
+     */
+    private volatile @Nullable SoftReference<char[]> flatChars;
+    private volatile @Nullable SoftReference<String> flatString;
+
+    private Rope(Node root) {
+        this.root = root;
+    }
+
+    public static Rope of(String text) {
+        if (text.isEmpty()) {
+            return EMPTY;
+        }
+        return new Rope(build(text, 0, text.length()));
+    }
+
+    @Override
+    public int length() {
+        return root.length();
+    }
+
+    /**
+     * @return true if the text contains UTF-16 surrogates, i.e. code points outside of the BMP
+     */
+    public boolean hasSurrogates() {
+        return root.hasSurrogates();
+    }
+
+    /**
+     * @return the amount of lines, an empty rope has a single (empty) line
+     */
+    public int lineCount() {
+        return root.lineBreaks() + 1;
+    }
+
+    @Override
+    public char charAt(int index) {
+        LeafCursor c = cursor;
+        if (c != null && index >= c.start && index < c.start + c.text.length()) {
+            return c.text.charAt(index - c.start);
+        }
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("index: " + index + " length: " + length());
+        }
+        Node n = root;
+        int start = 0;
+        while (n instanceof Concat) {
+            Concat cc = (Concat) n;
+            if (index - start < cc.left.length()) {
+                n = cc.left;
+            }
+            else {
+                start += cc.left.length();
+                n = cc.right;
+            }
+        }
+        String text = ((Leaf) n).text;
+        cursor = new LeafCursor(start, text);
+        return text.charAt(index - start);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        checkRange(start, end);
+        return new Rope(nonNull(suffix(prefix(root, end), start)));
+    }
+
+    /**
+     * Replace the characters between start (inclusive) and end (exclusive) with a new text
+     * @return a new rope, this rope is not modified
+     */
+    public Rope replace(int start, int end, String text) {
+        checkRange(start, end);
+        Node result = concat(concat(prefix(root, start), text.isEmpty() ? null : build(text, 0, text.length())), suffix(root, end));
+        if (result == null) {
+            return EMPTY;
+        }
+        if (result.depth() > MAX_DEPTH) {
+            result = rebalance(result);
+        }
+        return new Rope(result);
+    }
+
+    /**
+     * Translate a 0-based line and (UTF-16) character position to an offset in this rope.
+     * Positions beyond the end of a line are clamped to the end of that line, as the LSP spec prescribes.
+     */
+    public int offsetAt(int line, int character) {
+        if (line >= lineCount()) {
+            return length();
+        }
+        int start = lineStart(line);
+        int end = line + 1 < lineCount() ? lineStart(line + 1) - 1 : length();
+        return Math.min(start + Math.max(character, 0), end);
+    }
+
+    /**
+     * @return offset of the first character of a 0-based line
+     */
+    public int lineStart(int line) {
+        if (line <= 0) {
+            return 0;
+        }
+        if (line > root.lineBreaks()) {
+            return length();
+        }
+        Node n = root;
+        int offset = 0;
+        int remaining = line;
+        while (n instanceof Concat) {
+            Concat cc = (Concat) n;
+            if (remaining <= cc.left.lineBreaks()) {
+                n = cc.left;
+            }
+            else {
+                remaining -= cc.left.lineBreaks();
+                offset += cc.left.length();
+                n = cc.right;
+            }
+        }
+        String text = ((Leaf) n).text;
+        int index = -1;
+        for (int i = 0; i < remaining; i++) {
+            index = text.indexOf('\n', index + 1);
+        }
+        return offset + index + 1;
+    }
+
+    /**
+     * Copy the characters of this rope into a fresh array, without building an intermediate string
+     */
+    public char[] toCharArray() {
+        char[] result = new char[length()];
+        copy(root, result, 0);
+        return result;
+    }
+
+    /**
+     * The characters of this rope in a single array that is shared between the callers, so it should not be modified.
+     * Only the first call for this version of the text copies them.
+     */
+    public char[] sharedCharArray() {
+        SoftReference<char[]> cached = flatChars;
+        char[] result = cached == null ? null : cached.get();
+        if (result == null) {
+            result = toCharArray();
+            flatChars = new SoftReference<>(result);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        SoftReference<String> cached = flatString;
+        String result = cached == null ? null : cached.get();
+        if (result == null) {
+            SoftReference<char[]> chars = flatChars;
+            char[] flat = chars == null ? null : chars.get();
+            result = new String(flat == null ? toCharArray() : flat);
+            flatString = new SoftReference<>(result);
+        }
+        return result;
+    }
+
+    private static int copy(Node n, char[] target, int offset) {
+        if (n instanceof Leaf) {
+            String text = ((Leaf) n).text;
+            text.getChars(0, text.length(), target, offset);
+            return offset + text.length();
+        }
+        Concat cc = (Concat) n;
+        return copy(cc.right, target, copy(cc.left, target, offset));
+    }
+
+    private void checkRange(int start, int end) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException("range: [" + start + ", " + end + ") length: " + length());
+        }
+    }
+
+    private static Node nonNull(@Nullable Node n) {
+        return n == null ? EMPTY.root : n;
+    }
+
+    private static Node build(String text, int start, int end) {
+        if (end - start <= MAX_LEAF) {
+            return new Leaf(text.substring(start, end));
+        }
+        int middle = start + ((end - start) / 2);
+        return new Concat(build(text, start, middle), build(text, middle, end));
+    }
+
+    /** the first n chars of a node, or null if n is 0 */
+    private static @Nullable Node prefix(Node n, int length) {
+        if (length <= 0) {
+            return null;
+        }
+        if (length >= n.length()) {
+            return n;
+        }
+        if (n instanceof Leaf) {
+            return new Leaf(((Leaf) n).text.substring(0, length));
+        }
+        Concat cc = (Concat) n;
+        if (length <= cc.left.length()) {
+            return prefix(cc.left, length);
+        }
+        return concat(cc.left, prefix(cc.right, length - cc.left.length()));
+    }
+
+    /** the chars of a node starting at an offset, or null if nothing is left */
+    private static @Nullable Node suffix(@Nullable Node n, int from) {
+        if (n == null || from >= n.length()) {
+            return null;
+        }
+        if (from <= 0) {
+            return n;
+        }
+        if (n instanceof Leaf) {
+            return new Leaf(((Leaf) n).text.substring(from));
+        }
+        Concat cc = (Concat) n;
+        if (from >= cc.left.length()) {
+            return suffix(cc.right, from - cc.left.length());
+        }
+        return concat(suffix(cc.left, from), cc.right);
+    }
+
+    /**
+     * Join two nodes, small neighbouring leaves are merged so that typing doesn't
+     * produce a tree of single character leaves
+     */
+    private static @Nullable Node concat(@Nullable Node a, @Nullable Node b) {
+        if (a == null || a.length() == 0) {
+            return b;
+        }
+        if (b == null || b.length() == 0) {
+            return a;
+        }
+        if (a instanceof Leaf && b instanceof Leaf && a.length() + b.length() <= MAX_LEAF) {
+            return new Leaf(((Leaf) a).text + ((Leaf) b).text);
+        }
+        if (a instanceof Concat && b instanceof Leaf) {
+            Concat ac = (Concat) a;
+            if (ac.right instanceof Leaf && ac.right.length() + b.length() <= MAX_LEAF) {
+                return new Concat(ac.left, new Leaf(((Leaf) ac.right).text + ((Leaf) b).text));
+            }
+        }
+        if (a instanceof Leaf && b instanceof Concat) {
+            Concat bc = (Concat) b;
+            if (bc.left instanceof Leaf && a.length() + bc.left.length() <= MAX_LEAF) {
+                return new Concat(new Leaf(((Leaf) a).text + ((Leaf) bc.left).text), bc.right);
+            }
+        }
+        return new Concat(a, b);
+    }
+
+    private static Node rebalance(Node n) {
+        List<Leaf> leaves = new ArrayList<>();
+        collectLeaves(n, leaves);
+        return balanced(leaves, 0, leaves.size());
+    }
+
+    private static void collectLeaves(Node n, List<Leaf> target) {
+        if (n instanceof Leaf) {
+            target.add((Leaf) n);
+        }
+        else {
+            collectLeaves(((Concat) n).left, target);
+            collectLeaves(((Concat) n).right, target);
+        }
+    }
+
+    private static Node balanced(List<Leaf> leaves, int start, int end) {
+        if (end - start == 1) {
+            return leaves.get(start);
+        }
+        int middle = start + ((end - start) / 2);
+        return new Concat(balanced(leaves, start, middle), balanced(leaves, middle, end));
+    }
+
+    private abstract static class Node {
+        abstract int length();
+        abstract int lineBreaks();
+        abstract int depth();
+        abstract boolean hasSurrogates();
+    }
+
+    private static final class Leaf extends Node {
+        private final String text;
+        private final int lineBreaks;
+        private final boolean hasSurrogates;
+
+        Leaf(String text) {
+            this.text = text;
+            int breaks = 0;
+            boolean surrogates = false;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '\n') {
+                    breaks++;
+                }
+                else if (Character.isSurrogate(c)) {
+                    surrogates = true;
+                }
+            }
+            this.lineBreaks = breaks;
+            this.hasSurrogates = surrogates;
+        }
+
+        @Override
+        int length() {
+            return text.length();
+        }
+
+        @Override
+        int lineBreaks() {
+            return lineBreaks;
+        }
+
+        @Override
+        int depth() {
+            return 0;
+        }
+
+        @Override
+        boolean hasSurrogates() {
+            return hasSurrogates;
+        }
+    }
+
+    private static final class Concat extends Node {
+        private final Node left;
+        private final Node right;
+        private final int length;
+        private final int lineBreaks;
+        private final int depth;
+        private final boolean hasSurrogates;
+
+        Concat(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+            this.length = left.length() + right.length();
+            this.lineBreaks = left.lineBreaks() + right.lineBreaks();
+            this.depth = Math.max(left.depth(), right.depth()) + 1;
+            this.hasSurrogates = left.hasSurrogates() || right.hasSurrogates();
+        }
+
+        @Override
+        int length() {
+            return length;
+        }
+
+        @Override
+        int lineBreaks() {
+            return lineBreaks;
+        }
+
+        @Override
+        int depth() {
+            return depth;
+        }
+
+        @Override
+        boolean hasSurrogates() {
+            return hasSurrogates;
+        }
+    }
+
+    private static final class LeafCursor {
+        private final int start;
+        private final String text;
+
+        LeafCursor(int start, String text) {
+            this.start = start;
+            this.text = text;
+        }
+    }
+}
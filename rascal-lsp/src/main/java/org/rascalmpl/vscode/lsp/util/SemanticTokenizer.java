@@ -26,12 +26,21 @@
  */
 package org.rascalmpl.vscode.lsp.util;
 
-import java.util.ArrayList;
+import java.time.Duration;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.apache.logging.log4j.LogManager;
@@ -41,35 +50,111 @@ import org.eclipse.lsp4j.SemanticTokens;
 import org.eclipse.lsp4j.SemanticTokensCapabilities;
 import org.eclipse.lsp4j.SemanticTokensClientCapabilitiesRequests;
 import org.eclipse.lsp4j.SemanticTokensDelta;
+import org.eclipse.lsp4j.SemanticTokensEdit;
 import org.eclipse.lsp4j.SemanticTokensLegend;
+import org.eclipse.lsp4j.SemanticTokensServerFull;
 import org.eclipse.lsp4j.SemanticTokensWithRegistrationOptions;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.rascalmpl.values.IRascalValueFactory;
 import org.rascalmpl.values.parsetrees.ITree;
 import org.rascalmpl.values.parsetrees.ProductionAdapter;
 import org.rascalmpl.values.parsetrees.TreeAdapter;
 
 import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IList;
+import io.usethesource.vallang.ISourceLocation;
 import io.usethesource.vallang.IString;
 import io.usethesource.vallang.IValue;
 
 public class SemanticTokenizer implements ISemanticTokens {
     private static final Logger logger = LogManager.getLogger(SemanticTokenizer.class);
 
+    private final AtomicLong resultIds = new AtomicLong();
+    /**
+     * Earlier full results, so that we can calculate a delta against them. Clients only refer to the
+     * last result of a document, so an entry is dropped as soon as a delta has been calculated for it.
+     */
+    private final Cache<String, TokenArray> previousResults = Caffeine.newBuilder()
+        .expireAfterAccess(Duration.ofMinutes(10))
+        .maximumSize(256)
+        .softValues()
+        .build();
+
     @Override
     public SemanticTokens semanticTokensFull(ITree tree) {
+        TokenArray tokens = collectTokens(tree);
+        String resultId = Long.toString(resultIds.incrementAndGet());
+        previousResults.put(resultId, tokens);
+        return new SemanticTokens(resultId, tokens);
+    }
+
+    @Override
+    public SemanticTokens reissue(SemanticTokens earlier) {
+        List<Integer> data = earlier.getData();
+        TokenArray tokens = data instanceof TokenArray ? (TokenArray) data : TokenArray.copyOf(data);
+        String resultId = Long.toString(resultIds.incrementAndGet());
+        previousResults.put(resultId, tokens);
+        return new SemanticTokens(resultId, tokens);
+    }
+
+    private static TokenArray collectTokens(ITree tree) {
         TokenList tokens = new TokenList();
         new TokenCollector(tokens).collect(tree);
-        return new SemanticTokens(tokens.getTheList());
+        return tokens.getTheList();
     }
 
     @Override
     public Either<SemanticTokens, SemanticTokensDelta> semanticTokensFullDelta(String previousId, ITree tree) {
-       return Either.forLeft(semanticTokensFull(tree));
+        @Nullable TokenArray previous = previousId == null ? null : previousResults.getIfPresent(previousId);
+        if (previous == null) {
+            logger.trace("No earlier tokens for result {}, sending all tokens", previousId);
+            return Either.forLeft(semanticTokensFull(tree));
+        }
+        previousResults.invalidate(previousId);
+
+        TokenArray current = collectTokens(tree);
+        String resultId = Long.toString(resultIds.incrementAndGet());
+        previousResults.put(resultId, current);
+        return Either.forRight(new SemanticTokensDelta(diff(previous, current), resultId));
+    }
+
+    /**
+     * Calculate a single edit that replaces the part between the common prefix and common suffix of the token arrays.
+     * Edits tend to be local, and since tokens are encoded relative to each other, that part is small.
+     */
+    private static List<SemanticTokensEdit> diff(TokenArray previous, TokenArray current) {
+        int[] prev = previous.data;
+        int[] cur = current.data;
+        int prevOffset = previous.offset;
+        int curOffset = current.offset;
+        int prevLength = previous.size();
+        int curLength = current.size();
+        int prefix = 0;
+        int maxPrefix = Math.min(prevLength, curLength);
+        while (prefix < maxPrefix && prev[prevOffset + prefix] == cur[curOffset + prefix]) {
+            prefix++;
+        }
+        if (prefix == prevLength && prefix == curLength) {
+            return Collections.emptyList();
+        }
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix
+            && prev[prevOffset + prevLength - 1 - suffix] == cur[curOffset + curLength - 1 - suffix]) {
+            suffix++;
+        }
+        return Collections.singletonList(new SemanticTokensEdit(
+            prefix,
+            prevLength - prefix - suffix,
+            current.subList(prefix, curLength - suffix)
+        ));
     }
 
     @Override
     public SemanticTokens semanticTokensRange(Range range, ITree tree) {
-        return semanticTokensFull(tree);
+        TokenList tokens = new TokenList(range.getStart().getLine(), range.getEnd().getLine());
+        new TokenCollector(tokens).collect(tree);
+        return new SemanticTokens(tokens.getTheList());
     }
 
     @Override
@@ -77,7 +162,8 @@ public class SemanticTokenizer implements ISemanticTokens {
         SemanticTokensWithRegistrationOptions result = new SemanticTokensWithRegistrationOptions();
         SemanticTokensLegend legend = new SemanticTokensLegend(TokenTypes.getTokenTypes(), TokenTypes.getTokenModifiers());
 
-        result.setFull(true);
+        result.setFull(new SemanticTokensServerFull(true));
+        result.setRange(true);
         result.setLegend(legend);
 
         return result;
@@ -97,22 +183,87 @@ public class SemanticTokenizer implements ISemanticTokens {
         return cps;
     }
 
+    /**
+     * Read-only list view on a slice of an int array. The tokens are serialized from this view,
+     * so we never build a list of boxed Integers.
+     */
+    private static final class TokenArray extends AbstractList<Integer> implements RandomAccess {
+        private final int[] data;
+        private final int offset;
+        private final int length;
+
+        TokenArray(int[] data, int offset, int length) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        static TokenArray copyOf(List<Integer> tokens) {
+            int[] data = new int[tokens.size()];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = tokens.get(i);
+            }
+            return new TokenArray(data, 0, data.length);
+        }
+
+        @Override
+        public Integer get(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("index: " + index + " size: " + length);
+            }
+            return data[offset + index];
+        }
+
+        @Override
+        public int size() {
+            return length;
+        }
+
+        @Override
+        public TokenArray subList(int fromIndex, int toIndex) {
+            if (fromIndex < 0 || toIndex > length || fromIndex > toIndex) {
+                throw new IndexOutOfBoundsException("from: " + fromIndex + " to: " + toIndex + " size: " + length);
+            }
+            return new TokenArray(data, offset + fromIndex, toIndex - fromIndex);
+        }
+    }
+
     private static class TokenList {
-        List<Integer> theList = new ArrayList<>(500);
+        private static final int TOKEN_SIZE = 5;
+        int[] theList = new int[500 * TOKEN_SIZE];
+        int size = 0;
         int previousLine = 0;
         int previousStart = 0;
+        /** only tokens starting on a line between these (inclusive) are kept */
+        final int firstLine;
+        final int lastLine;
 
-        public List<Integer> getTheList() {
-            return Collections.unmodifiableList(theList);
+        public TokenList() {
+            this(0, Integer.MAX_VALUE);
         }
 
-        public void addToken(int startLine, int startColumn, int length, String category) {
+        public TokenList(int firstLine, int lastLine) {
+            this.firstLine = firstLine;
+            this.lastLine = lastLine;
+        }
+
+        public TokenArray getTheList() {
+            return new TokenArray(theList, 0, size);
+        }
+
+        public void addToken(int startLine, int startColumn, int length, int tokenType) {
+            if (startLine < firstLine || startLine > lastLine) {
+                return;
+            }
+            if (size + TOKEN_SIZE > theList.length) {
+                theList = Arrays.copyOf(theList, theList.length + (theList.length / 2));
+            }
             // https://microsoft.github.io/language-server-protocol/specifications/specification-3-16/#textDocument_semanticTokens
-            theList.add(startLine - previousLine);
-            theList.add(startLine == previousLine ? startColumn - previousStart : startColumn);
-            theList.add(length);
-            theList.add(TokenTypes.tokenTypeForName(category));
-            theList.add(0); // no support for modifiers yet
+            theList[size++] = startLine - previousLine;
+            theList[size++] = startLine == previousLine ? startColumn - previousStart : startColumn;
+            theList[size++] = length;
+            theList[size++] = tokenType;
+            theList[size++] = 0; // no support for modifiers yet
             previousLine = startLine;
             previousStart = startColumn;
         }
@@ -386,9 +537,24 @@ public class SemanticTokenizer implements ISemanticTokens {
 
             return result != null ? result : 0;
         }
+
+        /** marks the absence of a category while collecting tokens */
+        public static final int NO_CATEGORY = -1;
     }
 
+    /**
+     * Walks the parse tree with an explicit stack, so deeply nested trees (long lists for example)
+     * cannot overflow the java stack. Character children are handled inline, and literals are jumped over
+     * using their length, which is fixed by their production.
+     */
     private static class TokenCollector {
+        private static final int META_AMBIGUITY = TokenTypes.tokenTypeForName(TreeAdapter.META_AMBIGUITY);
+        private static final int WALK_CHARACTERS = -1;
+
+        /** tree-specific category annotations are not part of this */
+        private final Map<IConstructor, ProductionInfo> productions = new IdentityHashMap<>();
+        private final Deque<Frame> stack = new ArrayDeque<>();
+
         private int line;
         private int column;
         private int startLineCurrentToken;
@@ -405,86 +571,163 @@ public class SemanticTokenizer implements ISemanticTokens {
         }
 
         public void collect(ITree tree) {
-            collect(tree, null);
+            visit(tree, TokenTypes.NO_CATEGORY);
+            while (!stack.isEmpty()) {
+                if (line > tokens.lastLine) {
+                    // we are past the requested range, no need to look any further
+                    return;
+                }
+                Frame current = stack.peek();
+                if (current.index < current.args.length()) {
+                    visit((ITree) current.args.get(current.index++), current.childCategory);
+                }
+                else {
+                    stack.pop();
+                    if (current.tokenCategory != TokenTypes.NO_CATEGORY) {
+                        tokens.addToken(startLineCurrentToken, startColumnCurrentToken, column - startColumnCurrentToken, current.tokenCategory);
+                    }
+                }
+            }
         }
 
-        private void collect(ITree tree, @Nullable String currentCategory) {
-            if (tree.isAppl()) {
+        private void visit(ITree tree, int currentCategory) {
+            if (tree.isChar()) {
+                collectChar(tree, currentCategory);
+            }
+            else if (tree.isAppl()) {
+                if (line < tokens.firstLine && skipBeforeRange(tree, currentCategory)) {
+                    return;
+                }
                 collectAppl(tree, currentCategory);
             }
             else if (tree.isAmb()) {
                 collectAmb(tree, currentCategory);
             }
-            else if (tree.isChar()) {
-                collectChar(tree, currentCategory);
+        }
+
+        /**
+         * Jump over a subtree that ends before the requested range, using its source location
+         * @return false if the subtree has to be visited after all
+         */
+        private boolean skipBeforeRange(ITree tree, int currentCategory) {
+            ISourceLocation loc = TreeAdapter.getLocation(tree);
+            if (loc == null || !loc.hasLineColumn() || loc.getEndLine() - 1 >= tokens.firstLine) {
+                return false;
             }
+            int endLine = loc.getEndLine() - 1;
+            if (endLine > line && currentCategory != TokenTypes.NO_CATEGORY) {
+                // same as splitting a multi-line token in collectChar
+                startLineCurrentToken = endLine;
+                startColumnCurrentToken = 0;
+            }
+            // columns before the range do not matter, the first line of the range starts after a newline
+            line = endLine;
+            column = loc.getEndColumn();
+            return true;
         }
 
-        @SuppressWarnings("java:S3776") // parsing tends to be complex
-        private void collectAppl(ITree arg, @Nullable String currentCategory) {
-            String category = null;
+        private ProductionInfo infoOf(IConstructor prod, ITree arg) {
+            ProductionInfo result = productions.get(prod);
+            if (result == null) {
+                result = new ProductionInfo(categoryOfProduction(prod, arg), literalLength(prod, arg));
+                productions.put(prod, result);
+            }
+            return result;
+        }
 
-            if (currentCategory == null) {
-                IValue catAnno = arg.asWithKeywordParameters().getParameter("category");
+        private static int categoryOfProduction(IConstructor prod, ITree arg) {
+            if (ProductionAdapter.isDefault(prod)) {
+                String category = ProductionAdapter.getCategory(prod);
+                if (category != null) {
+                    return TokenTypes.tokenTypeForName(category);
+                }
+            }
 
-                if (catAnno != null) {
-                    category = ((IString) catAnno).getValue();
+            if (ProductionAdapter.isLiteral(prod) || ProductionAdapter.isCILiteral(prod)) {
+                // the characters of a literal are fixed by its production,
+                // so the operator check gives the same answer for every tree of this production
+                for (IValue child : TreeAdapter.getArgs(arg)) {
+                    int c = TreeAdapter.getCharacter((ITree) child);
+                    if (c != '-' && !Character.isJavaIdentifierPart(c)) {
+                        // operators are not highlighted
+                        return TokenTypes.NO_CATEGORY;
+                    }
                 }
+                return TokenTypes.tokenTypeForName("keyword.other");
+            }
 
-                IConstructor prod = TreeAdapter.getProduction(arg);
+            return TokenTypes.NO_CATEGORY;
+        }
 
-                if (category == null && ProductionAdapter.isDefault(prod)) {
-                    category = ProductionAdapter.getCategory(prod);
+        /**
+         * @return the length in UTF-16 chars of a literal, or WALK_CHARACTERS if it's not a literal or spans multiple lines
+         */
+        private static int literalLength(IConstructor prod, ITree arg) {
+            if (!ProductionAdapter.isLiteral(prod) && !ProductionAdapter.isCILiteral(prod)) {
+                return WALK_CHARACTERS;
+            }
+            int length = 0;
+            for (IValue child : TreeAdapter.getArgs(arg)) {
+                ITree ch = (ITree) child;
+                if (!ch.isChar()) {
+                    return WALK_CHARACTERS;
+                }
+                int c = TreeAdapter.getCharacter(ch);
+                if (c == '\n') {
+                    return WALK_CHARACTERS;
                 }
+                length += Character.charCount(c);
+            }
+            return length;
+        }
 
-                if (category == null && (ProductionAdapter.isLiteral(prod) || ProductionAdapter.isCILiteral(prod))) {
-                    category = "keyword.other";
+        private void collectAppl(ITree arg, int currentCategory) {
+            int category = TokenTypes.NO_CATEGORY;
+            ProductionInfo info = infoOf(TreeAdapter.getProduction(arg), arg);
 
-                    // unless this is an operator
-                    for (IValue child : TreeAdapter.getArgs(arg)) {
-                        int c = TreeAdapter.getCharacter((ITree) child);
-                        if (c != '-' && !Character.isJavaIdentifierPart(c)) {
-                            category = null;
-                        }
-                    }
+            if (currentCategory == TokenTypes.NO_CATEGORY) {
+                IValue catAnno = arg.asWithKeywordParameters().getParameter("category");
+                category = catAnno != null ? TokenTypes.tokenTypeForName(((IString) catAnno).getValue()) : info.category;
+            }
+
+            if (info.literalLength != WALK_CHARACTERS) {
+                // no need to go down to the characters
+                if (category != TokenTypes.NO_CATEGORY) {
+                    tokens.addToken(line, column, info.literalLength, category);
                 }
+                column += info.literalLength;
+                return;
             }
 
-            if (category != null && currentCategory == null) {
+            if (category != TokenTypes.NO_CATEGORY) {
                 startLineCurrentToken = line;
                 startColumnCurrentToken = column;
             }
 
             // now we go down in the tree to find more tokens and to advance the counters
-            for (IValue child : TreeAdapter.getArgs(arg)) {
-                collect((ITree) child, currentCategory != null ? currentCategory : category);
-            }
-
-            if (category != null && currentCategory == null) {
-                tokens.addToken(startLineCurrentToken, startColumnCurrentToken, column - startColumnCurrentToken, category);
-            }
+            int childCategory = currentCategory != TokenTypes.NO_CATEGORY ? currentCategory : category;
+            stack.push(new Frame(TreeAdapter.getArgs(arg), childCategory, category));
         }
 
-        private void collectAmb(ITree arg, @Nullable String currentCategory) {
+        private void collectAmb(ITree arg, int currentCategory) {
+            ITree first = (ITree) TreeAdapter.getAlternatives(arg).iterator().next();
             if (showAmb) {
                 startLineCurrentToken = line;
                 startColumnCurrentToken = column;
 
-                collect((ITree) TreeAdapter.getAlternatives(arg).iterator().next(), "MetaAmbiguity");
-
-                tokens.addToken(startLineCurrentToken, startColumnCurrentToken, column - startColumnCurrentToken, "MetaAmbiguity");
+                stack.push(new Frame(IRascalValueFactory.getInstance().list(first), META_AMBIGUITY, META_AMBIGUITY));
             } else {
-                collect((ITree) TreeAdapter.getAlternatives(arg).iterator().next(), currentCategory);
+                visit(first, currentCategory);
             }
         }
 
-        private void collectChar(ITree ch, @Nullable String currentCategory) {
+        private void collectChar(ITree ch, int currentCategory) {
             int currentChar = TreeAdapter.getCharacter(ch);
             if (currentChar == '\n') {
                 line++;
 
                 // this splits multi-line tokens automatically across the lines
-                if (currentCategory != null) {
+                if (currentCategory != TokenTypes.NO_CATEGORY) {
                     tokens.addToken(startLineCurrentToken, startColumnCurrentToken, column - startColumnCurrentToken, currentCategory);
                     startColumnCurrentToken = 0;
                     startLineCurrentToken = line;
@@ -499,5 +742,30 @@ public class SemanticTokenizer implements ISemanticTokens {
                 column++;
             }
         }
+
+        private static final class Frame {
+            private final IList args;
+            private int index = 0;
+            /** category the children are part of */
+            private final int childCategory;
+            /** category of the token that this node starts, which is emitted when all children are done */
+            private final int tokenCategory;
+
+            Frame(IList args, int childCategory, int tokenCategory) {
+                this.args = args;
+                this.childCategory = childCategory;
+                this.tokenCategory = tokenCategory;
+            }
+        }
+
+        private static final class ProductionInfo {
+            private final int category;
+            private final int literalLength;
+
+            ProductionInfo(int category, int literalLength) {
+                this.category = category;
+                this.literalLength = literalLength;
+            }
+        }
     }
 }
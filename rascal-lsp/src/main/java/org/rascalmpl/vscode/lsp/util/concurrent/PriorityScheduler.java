@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.rascalmpl.vscode.lsp.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs the work of the language server according to the kind of request it belongs to.
+ *
+ * Interactive work (tokens, parsing, hover &amp; definition lookups) bypasses the queue and starts right away.
+ * Background work (summaries, outlines, code lenses) and batch work (type-checking) share a bounded amount of
+ * worker slots. Queued background work always goes before batch work, batch work can only take part of the slots,
+ * and no new batch work is started while interactive work is running, so a long type-check run cannot delay
+ * the requests the user is waiting for.
+ *
+ * The amount of queued, running and completed work per class is available for monitoring.
+ */
+public class PriorityScheduler {
+    private static final Logger logger = LogManager.getLogger(PriorityScheduler.class);
+
+    /** default maximum amount of background and batch work that runs at the same time */
+    private static final int DEFAULT_SLOTS = Integer.getInteger("rascal.lsp.backgroundSlots",
+        Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    public enum Priority {
+        INTERACTIVE,
+        BACKGROUND,
+        BATCH
+    }
+
+    private final ExecutorService threads;
+    private final ExecutorService lowPriorityThreads = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Rascal low priority worker");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+    private final int slots;
+    private final int batchSlots;
+    private final Executor[] executors;
+
+    // the fields below are guarded by this
+    private final PriorityQueue<Job> queue = new PriorityQueue<>();
+    private final int[] queued = new int[Priority.values().length];
+    private final int[] running = new int[Priority.values().length];
+    private final long[] completed = new long[Priority.values().length];
+    private int usedSlots = 0;
+    private long sequence = 0;
+
+    public PriorityScheduler(ExecutorService threads) {
+        this(threads, DEFAULT_SLOTS);
+    }
+
+    /**
+     * @param threads the pool that runs the actual work, it should not limit the amount of threads, as interactive work is never queued
+     * @param slots maximum amount of background and batch work running at the same time
+     */
+    public PriorityScheduler(ExecutorService threads, int slots) {
+        if (slots < 1) {
+            throw new IllegalArgumentException("Scheduler needs at least one slot: " + slots);
+        }
+        this.threads = threads;
+        this.slots = slots;
+        this.batchSlots = Math.max(1, slots / 2);
+        this.executors = new Executor[Priority.values().length];
+        for (Priority p : Priority.values()) {
+            executors[p.ordinal()] = r -> submit(p, r);
+        }
+    }
+
+    public Executor executor(Priority priority) {
+        return executors[priority.ordinal()];
+    }
+
+    public Executor interactive() {
+        return executor(Priority.INTERACTIVE);
+    }
+
+    public Executor background() {
+        return executor(Priority.BACKGROUND);
+    }
+
+    public Executor batch() {
+        return executor(Priority.BATCH);
+    }
+
+    /**
+     * The underlying thread pool, for work that should never wait in a queue, for example
+     * because it blocks on other work of the scheduler (like creating an evaluator).
+     */
+    public ExecutorService getThreadPool() {
+        return threads;
+    }
+
+    /**
+     * Threads with a low priority for long running work that should not compete with the editor
+     * for CPU time, like loading the modules of an evaluator. Work is never queued here either.
+     */
+    public ExecutorService getLowPriorityThreadPool() {
+        return lowPriorityThreads;
+    }
+
+    public synchronized int getQueued(Priority priority) {
+        return queued[priority.ordinal()];
+    }
+
+    public synchronized int getRunning(Priority priority) {
+        return running[priority.ordinal()];
+    }
+
+    public synchronized long getCompleted(Priority priority) {
+        return completed[priority.ordinal()];
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            if (!queue.isEmpty()) {
+                logger.debug("Dropping queued work at shutdown: {}", this);
+            }
+            queue.clear();
+            Arrays.fill(queued, 0);
+        }
+        threads.shutdown();
+        lowPriorityThreads.shutdown();
+    }
+
+    private void submit(Priority priority, Runnable work) {
+        List<Job> ready;
+        synchronized (this) {
+            if (priority == Priority.INTERACTIVE) {
+                running[priority.ordinal()]++;
+                ready = Collections.singletonList(new Job(priority, sequence++, work));
+            }
+            else {
+                queue.add(new Job(priority, sequence++, work));
+                queued[priority.ordinal()]++;
+                ready = takeReady();
+            }
+            logger.trace("Submitted {} work: {}", priority, this);
+        }
+        start(ready);
+    }
+
+    /** take the queued jobs that can start now, the counters are updated as if they are running */
+    private List<Job> takeReady() {
+        List<Job> ready = Collections.emptyList();
+        while (usedSlots < slots) {
+            Job next = queue.peek();
+            if (next == null || (next.priority == Priority.BATCH && !batchMayStart())) {
+                break;
+            }
+            queue.poll();
+            queued[next.priority.ordinal()]--;
+            running[next.priority.ordinal()]++;
+            usedSlots++;
+            if (ready.isEmpty()) {
+                ready = new ArrayList<>(2);
+            }
+            ready.add(next);
+        }
+        return ready;
+    }
+
+    private boolean batchMayStart() {
+        return running[Priority.BATCH.ordinal()] < batchSlots && running[Priority.INTERACTIVE.ordinal()] == 0;
+    }
+
+    private void start(List<Job> ready) {
+        for (Job job : ready) {
+            try {
+                threads.execute(job);
+            }
+            catch (RejectedExecutionException e) {
+                logger.debug("Cannot start {} work, the thread pool is shut down", job.priority);
+                finished(job);
+            }
+        }
+    }
+
+    private void finished(Job job) {
+        List<Job> ready;
+        synchronized (this) {
+            running[job.priority.ordinal()]--;
+            completed[job.priority.ordinal()]++;
+            if (job.priority != Priority.INTERACTIVE) {
+                usedSlots--;
+            }
+            ready = takeReady();
+        }
+        start(ready);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder result = new StringBuilder("PriorityScheduler[");
+        for (Priority p : Priority.values()) {
+            int i = p.ordinal();
+            if (i > 0) {
+                result.append(", ");
+            }
+            result.append(p).append(": ")
+                .append(queued[i]).append(" queued, ")
+                .append(running[i]).append(" running, ")
+                .append(completed[i]).append(" completed");
+        }
+        return result.append(']').toString();
+    }
+
+    @SuppressWarnings("java:S1210") // jobs are only compared by the queue, never for equality
+    private final class Job implements Runnable, Comparable<Job> {
+        private final Priority priority;
+        private final long sequence;
+        private final Runnable work;
+
+        Job(Priority priority, long sequence, Runnable work) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            try {
+                work.run();
+            }
+            finally {
+                finished(this);
+            }
+        }
+
+        @Override
+        public int compareTo(Job o) {
+            int result = priority.compareTo(o.priority);
+            return result != 0 ? result : Long.compare(sequence, o.sequence);
+        }
+    }
+}
@@ -32,25 +32,77 @@ import java.util.function.Function;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.rascalmpl.vscode.lsp.TextDocumentState;
+import org.rascalmpl.vscode.lsp.util.Rope;
 import org.rascalmpl.vscode.lsp.util.locations.impl.ArrayLineOffsetMap;
 
 import io.usethesource.vallang.ISourceLocation;
 
+/**
+ * Column maps of files, the maps of open documents are patched on every change
+ * (see {@link #linesChanged}), instead of scanning the whole document again.
+ */
 public class ColumnMaps {
-    private final LoadingCache<ISourceLocation, LineColumnOffsetMap> currentEntries;
+    private final Function<ISourceLocation, CharSequence> getContents;
+    private final LoadingCache<ISourceLocation, Entry> currentEntries;
 
-    public ColumnMaps(Function<ISourceLocation, String> getContents) {
+    public ColumnMaps(Function<ISourceLocation, CharSequence> getContents) {
+        this.getContents = getContents;
         currentEntries = Caffeine.newBuilder()
             .expireAfterAccess(Duration.ofMinutes(10))
             .softValues()
-            .build(l -> ArrayLineOffsetMap.build(getContents.apply(l)));
+            .build(l -> build(getContents.apply(l)));
+    }
+
+    private static Entry build(CharSequence contents) {
+        return new Entry(contents instanceof Rope ? (Rope) contents : null, ArrayLineOffsetMap.build(contents));
     }
 
     public LineColumnOffsetMap get(ISourceLocation sloc) {
-        return currentEntries.get(sloc.top());
+        ISourceLocation file = sloc.top();
+        Entry entry = currentEntries.get(file);
+        if (entry.contents == null) {
+            return entry.map;
+        }
+        // the map can have been built from contents that were replaced while it was built, without a change
+        // listener seeing the entry, so only the map of the current contents of a document is served
+        CharSequence current = getContents.apply(file);
+        if (entry.contents == current) {
+            return entry.map;
+        }
+        return currentEntries.asMap().compute(file, (l, e) -> e != null && e.contents == current ? e : build(current)).map;
     }
 
     public void clear(ISourceLocation sloc) {
         currentEntries.invalidate(sloc.top());
     }
+
+    /**
+     * Patch the map of a document after a change, see {@link TextDocumentState.ChangeListener}.
+     * If the map wasn't built from the contents before the change, it's dropped and lazily rebuilt instead.
+     */
+    public void linesChanged(ISourceLocation file, Rope before, Rope after, int startLine, int oldEndLine, int newEndLine) {
+        currentEntries.asMap().computeIfPresent(file.top(), (l, e) -> {
+            if (e.contents != before && e.contents == getContents.apply(l)) {
+                // already rebuilt from the contents after a later change of the same batch
+                return e;
+            }
+            if (e.contents != before) {
+                return null;
+            }
+            return new Entry(after, ArrayLineOffsetMap.patch(e.map, after, startLine, oldEndLine, newEndLine));
+        });
+    }
+
+    private static final class Entry {
+        /** contents of an open document that the map belongs to, null for files on disk */
+        private final @Nullable Rope contents;
+        private final LineColumnOffsetMap map;
+
+        Entry(@Nullable Rope contents, LineColumnOffsetMap map) {
+            this.contents = contents;
+            this.map = map;
+        }
+    }
 }
@@ -26,23 +26,15 @@
  */
 package org.rascalmpl.vscode.lsp.util.locations;
 
-import org.checkerframework.checker.nullness.qual.Nullable;
 import org.eclipse.lsp4j.Range;
 
 /**
  * Map cursor positions to smallest range that contains it and is a member of the map
  */
-public interface IRangeMap<T> {
+public interface IRangeMap<T> extends IRangeLookup<T> {
     /**
      * Add a range and a binding to a result
      * Overlapping areas are possible, the smallest match is always returned by lookup
      */
     void put(Range area, T value);
-
-    /**
-     * Lookup a cursor position/selection and find the smallest range where it's contained in.
-     *
-     * @return either the value or null if not found
-     */
-    @Nullable T lookup(Range from);
 }
@@ -33,4 +33,12 @@ package org.rascalmpl.vscode.lsp.util.locations;
  */
 public interface LineColumnOffsetMap {
     int translateColumn(int line, int column, boolean isEnd);
+
+    /**
+     * @return true if the columns are the same in both encodings, which is the case if the file doesn't contain
+     * characters outside of the BMP
+     */
+    default boolean isIdentity() {
+        return false;
+    }
 }
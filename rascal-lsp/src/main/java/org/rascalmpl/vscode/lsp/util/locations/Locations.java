@@ -28,12 +28,14 @@ package org.rascalmpl.vscode.lsp.util.locations;
 
 import java.net.URISyntaxException;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.eclipse.lsp4j.Location;
 import org.eclipse.lsp4j.Position;
 import org.eclipse.lsp4j.Range;
 import org.eclipse.lsp4j.TextDocumentIdentifier;
 import org.eclipse.lsp4j.TextDocumentItem;
 import org.rascalmpl.uri.URIUtil;
+import org.rascalmpl.vscode.lsp.util.locations.impl.ArrayLineOffsetMap;
 
 import io.usethesource.vallang.ISourceLocation;
 
@@ -64,6 +66,12 @@ public class Locations {
 
     public static Range toRange(ISourceLocation sloc, LineColumnOffsetMap map) {
         if (sloc.hasLineColumn()) {
+            if (map.isIdentity()) {
+                return new Range(
+                    new Position(sloc.getBeginLine() - 1, sloc.getBeginColumn()),
+                    new Position(sloc.getEndLine() - 1, sloc.getEndColumn())
+                );
+            }
             return new Range(
                 toPosition(sloc.getBeginLine() - 1, sloc.getBeginColumn(), map, false),
                 toPosition(sloc.getEndLine() - 1, sloc.getEndColumn(), map, true)
@@ -78,4 +86,54 @@ public class Locations {
         return new Position(line, map.translateColumn(line, column, atEnd));
     }
 
+    /**
+     * @return a converter for translating many locations, which remembers the column map and uri of the last file
+     */
+    public static Converter converter(ColumnMaps cm) {
+        return new Converter(cm);
+    }
+
+    /**
+     * Translates many locations in one pass, without looking up the column map (and building the uri) again as long as
+     * the locations are in the same file. Summaries are mostly about a single file, so that is often the case.
+     * Not thread-safe, use a converter per pass.
+     */
+    public static final class Converter {
+        private final ColumnMaps cm;
+        private @Nullable ISourceLocation lastFile = null;
+        private LineColumnOffsetMap lastMap = ArrayLineOffsetMap.build("");
+        private String lastUri = "";
+
+        private Converter(ColumnMaps cm) {
+            this.cm = cm;
+        }
+
+        public Range toRange(ISourceLocation sloc) {
+            return Locations.toRange(sloc, columnsOf(sloc));
+        }
+
+        public Location toLSPLocation(ISourceLocation sloc) {
+            Range range = toRange(sloc);
+            return new Location(lastUri, range);
+        }
+
+        private LineColumnOffsetMap columnsOf(ISourceLocation sloc) {
+            ISourceLocation last = lastFile;
+            if (last == null || !sameFile(last, sloc)) {
+                lastFile = sloc;
+                lastMap = cm.get(sloc);
+                lastUri = sloc.getURI().toString();
+            }
+            return lastMap;
+        }
+
+        private static boolean sameFile(ISourceLocation a, ISourceLocation b) {
+            return a.getPath().equals(b.getPath())
+                && a.getScheme().equals(b.getScheme())
+                && a.getAuthority().equals(b.getAuthority())
+                && a.getQuery().equals(b.getQuery())
+                && a.getFragment().equals(b.getFragment());
+        }
+    }
+
 }
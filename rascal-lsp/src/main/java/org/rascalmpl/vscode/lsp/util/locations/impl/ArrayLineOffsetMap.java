@@ -28,7 +28,9 @@ package org.rascalmpl.vscode.lsp.util.locations.impl;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
+import org.rascalmpl.vscode.lsp.util.Rope;
 import org.rascalmpl.vscode.lsp.util.locations.LineColumnOffsetMap;
 
 public class ArrayLineOffsetMap implements LineColumnOffsetMap {
@@ -63,21 +65,73 @@ public class ArrayLineOffsetMap implements LineColumnOffsetMap {
     }
 
 
-    @SuppressWarnings("java:S3776") // parsing tends to be complex
-    public static LineColumnOffsetMap build(String contents) {
-        int line = 0;
-        int column = 0;
-        char prev = '\0';
+    public static LineColumnOffsetMap build(CharSequence contents) {
+        if (!hasSurrogates(contents)) {
+            return IDENTITY_MAP;
+        }
         GrowingIntArray linesWithSurrogate = new GrowingIntArray();
         ArrayList<IntArray> linesMap = new ArrayList<>(0);
+        scan(contents, 0, contents.length(), 0, linesWithSurrogate, linesMap);
+        return result(linesWithSurrogate, linesMap);
+    }
+
+    /**
+     * Update a map after lines startLine up to and including oldEndLine have been replaced by lines startLine up to and
+     * including newEndLine. Only the new lines are scanned, the lines after them are shifted.
+     */
+    public static LineColumnOffsetMap patch(LineColumnOffsetMap previous, Rope contents, int startLine, int oldEndLine, int newEndLine) {
+        if (!contents.hasSurrogates()) {
+            return IDENTITY_MAP;
+        }
+        if (!(previous instanceof ArrayLineOffsetMap) && previous != IDENTITY_MAP) {
+            return build(contents);
+        }
+        IntArray oldLines = previous == IDENTITY_MAP ? new IntArray(new int[0], 0) : ((ArrayLineOffsetMap) previous).lines;
+        List<IntArray> oldOffsets = previous == IDENTITY_MAP ? new ArrayList<>(0) : ((ArrayLineOffsetMap) previous).wideColumnOffsets;
+
+        GrowingIntArray linesWithSurrogate = new GrowingIntArray();
+        ArrayList<IntArray> linesMap = new ArrayList<>(oldOffsets.size());
+        int i = 0;
+        for (; i < oldLines.length && oldLines.data[i] < startLine; i++) {
+            linesWithSurrogate.add(oldLines.data[i]);
+            linesMap.add(oldOffsets.get(i));
+        }
+
+        int from = contents.lineStart(startLine);
+        int to = newEndLine + 1 < contents.lineCount() ? contents.lineStart(newEndLine + 1) : contents.length();
+        scan(contents, from, to, startLine, linesWithSurrogate, linesMap);
+
+        int shift = newEndLine - oldEndLine;
+        for (; i < oldLines.length; i++) {
+            if (oldLines.data[i] > oldEndLine) {
+                linesWithSurrogate.add(oldLines.data[i] + shift);
+                linesMap.add(oldOffsets.get(i));
+            }
+        }
+        return result(linesWithSurrogate, linesMap);
+    }
+
+    private static LineColumnOffsetMap result(GrowingIntArray linesWithSurrogate, ArrayList<IntArray> linesMap) {
+        if (linesMap.isEmpty()) {
+            return IDENTITY_MAP;
+        }
+        return new ArrayLineOffsetMap(linesWithSurrogate.build(), linesMap);
+    }
+
+    /**
+     * Register the surrogate pairs between offsets start and end, where start is the beginning of line firstLine.
+     * Lines end at '\n' only (a '\r' before it is part of the line), just like the lines of a {@link Rope}, since
+     * the maps are patched by the line numbers of the rope.
+     */
+    @SuppressWarnings("java:S3776") // parsing tends to be complex
+    private static void scan(CharSequence contents, int start, int end, int firstLine, GrowingIntArray linesWithSurrogate, ArrayList<IntArray> linesMap) {
+        int line = firstLine;
+        int column = 0;
         GrowingIntArray currentLine = new GrowingIntArray();
 
-        for(int i = 0, n = contents.length() ; i < n ; i++) {
+        for(int i = start; i < end; i++) {
             char c = contents.charAt(i);
-            if (c == '\n' || c == '\r') {
-                if (c != prev && (prev == '\r' || prev == '\n')) {
-                    continue; // multichar newline skip it
-                }
+            if (c == '\n') {
                 if (!currentLine.isEmpty()) {
                     linesWithSurrogate.add(line);
                     linesMap.add(currentLine.build());
@@ -88,32 +142,67 @@ public class ArrayLineOffsetMap implements LineColumnOffsetMap {
             }
             else {
                 column++;
-                if (Character.isHighSurrogate(c) && (i + 1) < n && Character.isLowSurrogate(contents.charAt(i + 1))) {
+                if (Character.isHighSurrogate(c) && (i + 1) < end && Character.isLowSurrogate(contents.charAt(i + 1))) {
                     // full surrogate pair, register it, and skip the next char
                     currentLine.add(column);
                     i++;
                 }
             }
-            prev = c;
         }
         if (!currentLine.isEmpty()) {
             // handle last line
             linesWithSurrogate.add(line);
             linesMap.add(currentLine.build());
         }
-        if (linesMap.isEmpty()) {
-            return EMPTY_MAP;
-        }
-        return new ArrayLineOffsetMap(linesWithSurrogate.build(), linesMap);
     }
 
-    private static LineColumnOffsetMap EMPTY_MAP = new LineColumnOffsetMap(){
+    /** shared by all files without surrogate pairs */
+    private static final LineColumnOffsetMap IDENTITY_MAP = new LineColumnOffsetMap(){
         @Override
         public int translateColumn(int line, int column, boolean atEnd) {
             return column;
         }
+
+        @Override
+        public boolean isIdentity() {
+            return true;
+        }
     };
 
+    private static final int SCAN_BLOCK = 1024;
+
+    /**
+     * Quick check before the line by line scan. Ropes keep track of this themselves,
+     * strings are copied per block into an array, and the inner loop has no early exit, so the JIT can unroll/vectorize it.
+     */
+    private static boolean hasSurrogates(CharSequence contents) {
+        if (contents instanceof Rope) {
+            return ((Rope) contents).hasSurrogates();
+        }
+        int length = contents.length();
+        char[] block = new char[Math.min(SCAN_BLOCK, length)];
+        for (int start = 0; start < length; start += SCAN_BLOCK) {
+            int end = Math.min(length, start + SCAN_BLOCK);
+            if (contents instanceof String) {
+                ((String) contents).getChars(start, end, block, 0);
+            }
+            else {
+                for (int i = start; i < end; i++) {
+                    block[i - start] = contents.charAt(i);
+                }
+            }
+            int found = 0;
+            for (int i = 0; i < end - start; i++) {
+                // surrogates are 0xD800-0xDFFF
+                found |= ((block[i] & 0xF800) == 0xD800) ? 1 : 0;
+            }
+            if (found != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
 
     private static class GrowingIntArray {
         private int[] data = new int[0];
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.rascalmpl.vscode.lsp.util.locations.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.rascalmpl.vscode.lsp.util.locations.IRangeLookup;
+
+/**
+ * Read-only range map that stores its ranges in primitive arrays, built once from a summary via the {@link Builder}.
+ *
+ * Every position is encoded in a single long, and the ranges are sorted on start (and longer ranges first for the
+ * same start), so a lookup is a binary search for the last range that starts before the cursor. If that one ends
+ * too early, we follow a precomputed link to the closest earlier range that ends later, until one contains the cursor.
+ * For nested ranges the amount of links followed is bounded by the nesting depth.
+ *
+ * Per entry this costs two longs and an int, instead of a Range, two Positions and a TreeMap node.
+ */
+public class PackedRangeMap<T> implements IRangeLookup<T> {
+    private static final PackedRangeMap<Object> EMPTY = new PackedRangeMap<>(new long[0], new long[0], new int[0], new Object[0]);
+
+    private final long[] starts;
+    private final long[] ends;
+    /** index of the closest earlier entry that ends after this one, or -1 */
+    private final int[] endsLater;
+    private final Object[] values;
+
+    private PackedRangeMap(long[] starts, long[] ends, int[] endsLater, Object[] values) {
+        this.starts = starts;
+        this.ends = ends;
+        this.endsLater = endsLater;
+        this.values = values;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> PackedRangeMap<T> empty() {
+        return (PackedRangeMap<T>) EMPTY;
+    }
+
+    public static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public @Nullable T lookup(Range from) {
+        long start = encode(from.getStart());
+        long end = encode(from.getEnd());
+        int current = lastStartingAtOrBefore(start);
+        while (current >= 0) {
+            if (ends[current] >= end) {
+                return (T) values[current];
+            }
+            current = endsLater[current];
+        }
+        return null;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * Visit all entries, ordered on their ranges
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<Range, ? super T> action) {
+        for (int i = 0; i < starts.length; i++) {
+            action.accept(new Range(decode(starts[i]), decode(ends[i])), (T) values[i]);
+        }
+    }
+
+    private int lastStartingAtOrBefore(long position) {
+        int low = 0;
+        int high = starts.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= position) {
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /** positions are ordered on line first, and character second */
+    static long encode(Position p) {
+        return ((long) p.getLine() << 32) | (p.getCharacter() & 0xFFFF_FFFFL);
+    }
+
+    static Position decode(long p) {
+        return new Position((int) (p >>> 32), (int) p);
+    }
+
+    /**
+     * Collects ranges in primitive arrays, and sorts them only once when the map is built
+     */
+    public static class Builder<T> {
+        private long[] starts = new long[16];
+        private long[] ends = new long[16];
+        private Object[] values = new Object[16];
+        private int size = 0;
+
+        private Builder() { }
+
+        public Builder<T> put(Range area, T value) {
+            if (size == starts.length) {
+                int newSize = size + (size / 2);
+                starts = Arrays.copyOf(starts, newSize);
+                ends = Arrays.copyOf(ends, newSize);
+                values = Arrays.copyOf(values, newSize);
+            }
+            starts[size] = encode(area.getStart());
+            ends[size] = encode(area.getEnd());
+            values[size] = value;
+            size++;
+            return this;
+        }
+
+        /**
+         * If the same range was added more than once, the last value is kept
+         */
+        @SuppressWarnings("unchecked")
+        public PackedRangeMap<T> build() {
+            return (PackedRangeMap<T>) freeze(false);
+        }
+
+        /**
+         * Bind every range to the values it was added with, in the order they were added.
+         * Most ranges have a single value, so those are stored as a singleton list.
+         */
+        @SuppressWarnings("unchecked")
+        public PackedRangeMap<List<T>> buildGrouped() {
+            return (PackedRangeMap<List<T>>) (PackedRangeMap<?>) freeze(true);
+        }
+
+        @SuppressWarnings("unchecked")
+        private PackedRangeMap<?> freeze(boolean grouped) {
+            if (size == 0) {
+                return EMPTY;
+            }
+            int[] order = sortedOrder();
+            long[] resultStarts = new long[size];
+            long[] resultEnds = new long[size];
+            Object[] resultValues = new Object[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                int current = order[i];
+                boolean same = count > 0 && resultStarts[count - 1] == starts[current] && resultEnds[count - 1] == ends[current];
+                if (!same) {
+                    resultStarts[count] = starts[current];
+                    resultEnds[count] = ends[current];
+                    resultValues[count] = grouped ? Collections.singletonList(values[current]) : values[current];
+                    count++;
+                }
+                else if (grouped) {
+                    List<Object> existing = (List<Object>) resultValues[count - 1];
+                    if (existing.size() == 1) {
+                        existing = new ArrayList<>(existing);
+                        resultValues[count - 1] = existing;
+                    }
+                    existing.add(values[current]);
+                }
+                else {
+                    resultValues[count - 1] = values[current];
+                }
+            }
+            if (count < size) {
+                resultStarts = Arrays.copyOf(resultStarts, count);
+                resultEnds = Arrays.copyOf(resultEnds, count);
+                resultValues = Arrays.copyOf(resultValues, count);
+            }
+            return new PackedRangeMap<>(resultStarts, resultEnds, linkEndsLater(resultEnds), resultValues);
+        }
+
+        /** for every entry the closest earlier entry with a later end, using a stack of candidates */
+        private static int[] linkEndsLater(long[] ends) {
+            int[] result = new int[ends.length];
+            int[] stack = new int[ends.length];
+            int top = -1;
+            for (int i = 0; i < ends.length; i++) {
+                while (top >= 0 && ends[stack[top]] <= ends[i]) {
+                    top--;
+                }
+                result[i] = top >= 0 ? stack[top] : -1;
+                stack[++top] = i;
+            }
+            return result;
+        }
+
+        /** stable merge sort of the indexes, on start, and for the same start on end (descending) */
+        private int[] sortedOrder() {
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            int[] buffer = new int[size];
+            for (int width = 1; width < size; width *= 2) {
+                for (int low = 0; low < size - width; low += 2 * width) {
+                    merge(order, buffer, low, low + width, Math.min(low + (2 * width), size));
+                }
+            }
+            return order;
+        }
+
+        private void merge(int[] order, int[] buffer, int low, int middle, int high) {
+            System.arraycopy(order, low, buffer, low, high - low);
+            int left = low;
+            int right = middle;
+            for (int i = low; i < high; i++) {
+                if (left < middle && (right >= high || compare(buffer[left], buffer[right]) <= 0)) {
+                    order[i] = buffer[left++];
+                }
+                else {
+                    order[i] = buffer[right++];
+                }
+            }
+        }
+
+        private int compare(int a, int b) {
+            if (starts[a] != starts[b]) {
+                return Long.compare(starts[a], starts[b]);
+            }
+            return Long.compare(ends[b], ends[a]);
+        }
+    }
+}
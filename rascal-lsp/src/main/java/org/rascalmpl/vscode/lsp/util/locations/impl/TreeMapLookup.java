@@ -63,7 +63,7 @@ public class TreeMapLookup<T> implements IRangeMap<T> {
             }
             return Integer.compare(aEnd.getLine(), bEnd.getLine());
         }
-        return Integer.compare(aStart.getLine(), aStart.getLine());
+        return Integer.compare(aStart.getLine(), bStart.getLine());
     }
 
     private static boolean rangeContains(Range a, Range b) {
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.rascal.lsp.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.rascalmpl.uri.URIUtil;
+import org.rascalmpl.vscode.lsp.FileChangeAggregator;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileChangeEvent;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileChangeType;
+
+import io.usethesource.vallang.ISourceLocation;
+
+public class FileChangeAggregatorTests {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final BlockingQueue<List<FileChangeEvent>> batches = new LinkedBlockingQueue<>();
+
+    @AfterEach
+    void stopTimer() {
+        timer.shutdownNow();
+    }
+
+    private FileChangeAggregator aggregator(String... excludes) {
+        return new FileChangeAggregator(file(""), excludes, batches::add, timer, 20);
+    }
+
+    private static ISourceLocation file(String path) {
+        return URIUtil.correctLocation("file", "", "/workspace/" + path);
+    }
+
+    private List<String> nextBatch() throws InterruptedException, URISyntaxException {
+        List<FileChangeEvent> batch = batches.poll(5, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        List<String> result = new ArrayList<>();
+        for (FileChangeEvent e : batch) {
+            result.add(e.getType() + " " + e.getLocation().getPath());
+        }
+        return result;
+    }
+
+    @Test
+    void mergesChangesPerPath() throws InterruptedException, URISyntaxException {
+        FileChangeAggregator changes = aggregator();
+        changes.changed(file("a.rsc"), FileChangeType.Created);
+        changes.changed(file("b.rsc"), FileChangeType.Changed);
+        changes.changed(file("a.rsc"), FileChangeType.Changed);
+        changes.changed(file("b.rsc"), FileChangeType.Changed);
+        changes.changed(file("c.rsc"), FileChangeType.Deleted);
+        changes.changed(file("c.rsc"), FileChangeType.Created);
+        List<String> batch = nextBatch();
+        assertEquals(3, batch.size());
+        assertEquals("Created /workspace/a.rsc", batch.get(0));
+        assertEquals("Changed /workspace/b.rsc", batch.get(1));
+        assertEquals("Changed /workspace/c.rsc", batch.get(2));
+    }
+
+    @Test
+    void createdAndDeletedIsNoChange() throws InterruptedException, URISyntaxException {
+        FileChangeAggregator changes = aggregator();
+        changes.changed(file("tmp.rsc"), FileChangeType.Created);
+        changes.changed(file("tmp.rsc"), FileChangeType.Changed);
+        changes.changed(file("tmp.rsc"), FileChangeType.Deleted);
+        changes.changed(file("kept.rsc"), FileChangeType.Deleted);
+        List<String> batch = nextBatch();
+        assertEquals(1, batch.size());
+        assertEquals("Deleted /workspace/kept.rsc", batch.get(0));
+    }
+
+    @Test
+    void excludedPathsAreDropped() throws InterruptedException, URISyntaxException {
+        FileChangeAggregator changes = aggregator("**/target/**", "**/.git");
+        changes.changed(file("target/classes/A.class"), FileChangeType.Created);
+        changes.changed(file("sub/target/B.class"), FileChangeType.Created);
+        changes.changed(file(".git/index"), FileChangeType.Changed);
+        changes.changed(file("src/A.rsc"), FileChangeType.Changed);
+        List<String> batch = nextBatch();
+        assertEquals(1, batch.size());
+        assertEquals("Changed /workspace/src/A.rsc", batch.get(0));
+        assertNull(batches.poll(100, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.rascal.lsp.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileRangeContent;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileRangeParameters;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileStat;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileType;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileWithStat;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.URIParameter;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.WatchParameters;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.WriteFileParameters;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.OpenWriteParameters;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.WriteChunkParameters;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.WriteHandle;
+
+public class FileSystemServicesTests {
+    private final IRascalFileSystemServices services = new IRascalFileSystemServices() {};
+    private Path folder;
+
+    @BeforeEach
+    void createFolder() throws IOException {
+        folder = Files.createTempDirectory("rascal-lsp-fs-test");
+    }
+
+    @AfterEach
+    void deleteFolder() throws IOException {
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private Path randomFile(String name, int size) throws IOException {
+        byte[] contents = new byte[size];
+        new Random(42).nextBytes(contents);
+        return Files.write(folder.resolve(name), contents);
+    }
+
+    private FileRangeContent readRange(Path file, long offset, int length) {
+        return services.readFileRange(new FileRangeParameters(file.toUri().toString(), offset, length)).join();
+    }
+
+    @Test
+    void rangesAddUpToFile() throws IOException {
+        Path file = randomFile("ranges.bin", 100_000);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        FileRangeContent range;
+        do {
+            range = readRange(file, result.size(), 7_000);
+            assertEquals(100_000, range.getSize());
+            result.write(Base64.getDecoder().decode(range.getContent()));
+        } while (!range.isEof());
+        assertArrayEquals(Files.readAllBytes(file), result.toByteArray());
+    }
+
+    @Test
+    void rangeInTheMiddle() throws IOException {
+        Path file = randomFile("middle.bin", 1_000);
+        FileRangeContent range = readRange(file, 100, 10);
+        assertFalse(range.isEof());
+        byte[] expected = new byte[10];
+        System.arraycopy(Files.readAllBytes(file), 100, expected, 0, 10);
+        assertArrayEquals(expected, Base64.getDecoder().decode(range.getContent()));
+    }
+
+    @Test
+    void rangeBeyondEnd() throws IOException {
+        Path file = randomFile("end.bin", 1_000);
+        FileRangeContent range = readRange(file, 2_000, 10);
+        assertTrue(range.isEof());
+        assertEquals("", range.getContent());
+    }
+
+    private long fileCount() throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.count();
+        }
+    }
+
+    private WriteHandle openWrite(Path file) {
+        return services.openWrite(new OpenWriteParameters(file.toUri().toString(), true, true)).join();
+    }
+
+    private void writeChunk(WriteHandle handle, long offset, byte[] chunk) {
+        services.writeChunk(new WriteChunkParameters(handle.getHandle(), offset, Base64.getEncoder().encodeToString(chunk))).join();
+    }
+
+    @Test
+    void chunkedWriteReplacesOnCommit() throws IOException {
+        Path file = randomFile("chunked.bin", 10);
+        WriteHandle handle = openWrite(file);
+        writeChunk(handle, 0, new byte[] { 1, 2, 3 });
+        writeChunk(handle, 3, new byte[] { 4, 5 });
+        // nothing changes before the commit
+        assertEquals(10, Files.size(file));
+        services.commitWrite(handle).join();
+        assertArrayEquals(new byte[] { 1, 2, 3, 4, 5 }, Files.readAllBytes(file));
+        assertEquals(1, fileCount());
+    }
+
+    @Test
+    void abortedWriteLeavesFile() throws IOException {
+        Path file = randomFile("aborted.bin", 10);
+        byte[] original = Files.readAllBytes(file);
+        WriteHandle handle = openWrite(file);
+        writeChunk(handle, 0, new byte[] { 1, 2, 3 });
+        services.abortWrite(handle).join();
+        assertArrayEquals(original, Files.readAllBytes(file));
+        assertEquals(1, fileCount());
+    }
+
+    @Test
+    void chunkOutOfOrderFails() throws IOException {
+        Path file = randomFile("order.bin", 10);
+        byte[] original = Files.readAllBytes(file);
+        WriteHandle handle = openWrite(file);
+        writeChunk(handle, 0, new byte[] { 1, 2, 3 });
+        assertThrows(CompletionException.class, () -> writeChunk(handle, 5, new byte[] { 4 }));
+        // the write is aborted
+        assertThrows(CompletionException.class, () -> services.commitWrite(handle).join());
+        assertArrayEquals(original, Files.readAllBytes(file));
+    }
+
+    @Test
+    void commitWritesThroughSymlinkAndKeepsPermissions() throws IOException {
+        Path real = randomFile("real.bin", 10);
+        Path link;
+        try {
+            link = Files.createSymbolicLink(folder.resolve("link.bin"), real);
+        }
+        catch (UnsupportedOperationException | IOException e) {
+            // for example on Windows without the privilege to create links
+            link = null;
+        }
+        assumeTrue(link != null);
+        boolean posix = Files.getFileAttributeView(real, PosixFileAttributeView.class) != null;
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+        if (posix) {
+            Files.setPosixFilePermissions(real, permissions);
+        }
+        WriteHandle handle = openWrite(link);
+        writeChunk(handle, 0, new byte[] { 1, 2, 3 });
+        services.commitWrite(handle).join();
+        assertTrue(Files.isSymbolicLink(link));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(real));
+        if (posix) {
+            assertEquals(permissions, Files.getPosixFilePermissions(real));
+        }
+        assertEquals(2, fileCount());
+    }
+
+    @Test
+    void directoryWithStats() throws IOException {
+        randomFile("a.bin", 123);
+        Files.createDirectory(folder.resolve("sub"));
+        FileWithStat[] children = services.readDirectoryWithStats(new URIParameter(folder.toUri().toString())).join();
+        Map<String, FileWithStat> byName = Arrays.stream(children).collect(Collectors.toMap(FileWithStat::getName, c -> c));
+        assertEquals(2, byName.size());
+        assertEquals(FileType.File, byName.get("a.bin").getType());
+        assertEquals(123, byName.get("a.bin").getSize());
+        assertEquals(Files.getLastModifiedTime(folder.resolve("a.bin")).toMillis(), byName.get("a.bin").getMtime());
+        assertEquals(FileType.Directory, byName.get("sub").getType());
+    }
+
+    private FileStat stat(Path file) {
+        return services.stat(new URIParameter(file.toUri().toString())).join();
+    }
+
+    @Test
+    void statOfWatchedFileFollowsWrites() throws IOException {
+        services.watch(new WatchParameters(folder.toUri().toString(), true, new String[0])).join();
+        Path file = randomFile("watched.bin", 10);
+        assertEquals(10, stat(file).getSize());
+        // served from the cache
+        assertEquals(10, stat(file).getSize());
+        services.writeFile(new WriteFileParameters(file.toUri().toString(), Base64.getEncoder().encodeToString(new byte[20]), false, true)).join();
+        assertEquals(20, stat(file).getSize());
+        assertEquals(FileType.Directory, stat(folder).getType());
+    }
+
+    @Test
+    void unwatchedFolderIsNotCached() throws IOException {
+        services.watch(new WatchParameters(folder.toUri().toString(), true, new String[0])).join();
+        Path file = randomFile("unwatched.bin", 10);
+        assertEquals(10, stat(file).getSize());
+        services.unwatch(new URIParameter(folder.toUri().toString())).join();
+        // a change that the cache wasn't told about
+        Files.write(file, new byte[30]);
+        assertEquals(30, stat(file).getSize());
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.rascal.lsp.util;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.eclipse.lsp4j.ClientCapabilities;
+import org.eclipse.lsp4j.DefinitionParams;
+import org.eclipse.lsp4j.DidChangeTextDocumentParams;
+import org.eclipse.lsp4j.DidOpenTextDocumentParams;
+import org.eclipse.lsp4j.DocumentSymbolParams;
+import org.eclipse.lsp4j.HoverParams;
+import org.eclipse.lsp4j.InitializeParams;
+import org.eclipse.lsp4j.InitializedParams;
+import org.eclipse.lsp4j.MessageActionItem;
+import org.eclipse.lsp4j.MessageParams;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.ProgressParams;
+import org.eclipse.lsp4j.PublishDiagnosticsParams;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.SemanticTokensParams;
+import org.eclipse.lsp4j.ShowMessageRequestParams;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+import org.eclipse.lsp4j.TextDocumentIdentifier;
+import org.eclipse.lsp4j.TextDocumentItem;
+import org.eclipse.lsp4j.VersionedTextDocumentIdentifier;
+import org.eclipse.lsp4j.WorkDoneProgressCreateParams;
+import org.eclipse.lsp4j.jsonrpc.Launcher;
+import org.eclipse.lsp4j.services.TextDocumentService;
+import org.rascalmpl.vscode.lsp.BaseLanguageServer;
+import org.rascalmpl.vscode.lsp.IBaseLanguageClient;
+import org.rascalmpl.vscode.lsp.IBaseLanguageServerExtensions;
+import org.rascalmpl.vscode.lsp.IBaseTextDocumentService;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.FileChangeEvents;
+import org.rascalmpl.vscode.lsp.parametric.ParametricTextDocumentService;
+import org.rascalmpl.vscode.lsp.rascal.RascalLanguageServices;
+import org.rascalmpl.vscode.lsp.rascal.RascalTextDocumentService;
+import org.rascalmpl.vscode.lsp.terminal.ITerminalIDEServer.BrowseParameter;
+import org.rascalmpl.vscode.lsp.terminal.ITerminalIDEServer.LanguageParameter;
+import org.rascalmpl.vscode.lsp.util.concurrent.PriorityScheduler;
+
+/**
+ * Measures request latencies of both language servers without VS Code: a scripted client talks json-rpc
+ * to a server in the same process, and replays an editing session on a generated file.
+ * After opening the file every round sends a burst of changes, followed by a hover, definition,
+ * semantic tokens and outline request. The latencies are reported per method as percentiles.
+ *
+ * The first requests include loading the evaluators, so those are reported separately as "first ...".
+ *
+ * Not part of the test suite, run the main method by hand (after test-compile). Use
+ * -Dbenchmark.rounds (default 50), -Dbenchmark.changes (changes per round, default 20) and
+ * -Dbenchmark.size (functions or variables in the generated file, default 200) to change the session.
+ */
+public class LanguageServerLatencyBenchmark {
+    private static final int ROUNDS = Integer.getInteger("benchmark.rounds", 50);
+    private static final int CHANGES = Integer.getInteger("benchmark.changes", 20);
+    private static final int SIZE = Integer.getInteger("benchmark.size", 200);
+    /** the first requests wait for the evaluators, after that a request should be a lot quicker than this */
+    private static final long TIMEOUT_SECONDS = 300;
+    private static final int[] PERCENTILES = { 50, 95, 99 };
+
+    private final Map<String, List<Long>> latencies = new TreeMap<>();
+    private final Map<String, Integer> failures = new TreeMap<>();
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        Path workspace = Files.createTempDirectory("rascal-lsp-latency");
+        Document rascalModule = Document.rascal(workspace.resolve("Benchmark.rsc"), SIZE);
+        Document picoProgram = Document.pico(workspace.resolve("benchmark.pico"), SIZE);
+        try {
+            LanguageServerLatencyBenchmark rascal = new LanguageServerLatencyBenchmark();
+            rascal.run(() -> {
+                PriorityScheduler scheduler = new PriorityScheduler(Executors.newCachedThreadPool());
+                return new RascalTextDocumentService(new RascalLanguageServices(scheduler), scheduler);
+            }, rascalModule);
+            rascal.report("Rascal language server");
+
+            LanguageServerLatencyBenchmark parametric = new LanguageServerLatencyBenchmark();
+            parametric.run(() -> {
+                PriorityScheduler scheduler = new PriorityScheduler(Executors.newCachedThreadPool());
+                ParametricTextDocumentService service = new ParametricTextDocumentService(scheduler);
+                // rascal/sendRegisterLanguage registers asynchronously, without a way to wait for it,
+                // so we register the sample DSL directly before the client connects
+                service.registerLanguage(new LanguageParameter("pathConfig()", "Pico", "pico", "util::TestIDE", "picoLanguageContributor"));
+                return service;
+            }, picoProgram);
+            parametric.report("Parametric language server (Pico)");
+        }
+        finally {
+            Files.deleteIfExists(rascalModule.file);
+            Files.deleteIfExists(picoProgram.file);
+            Files.delete(workspace);
+        }
+        // the evaluators of both servers keep threads around
+        System.exit(0);
+    }
+
+    private void run(Supplier<IBaseTextDocumentService> service, Document document) throws IOException, InterruptedException, ExecutionException {
+        Files.write(document.file, document.contents.getBytes(StandardCharsets.UTF_8));
+
+        // in-memory pipes in both directions, java.io piped streams break when a writing thread ends,
+        // and json-rpc replies are written from whichever thread completes the request
+        Pipe toServer = Pipe.open();
+        Pipe toClient = Pipe.open();
+        BaseLanguageServer.startLanguageServer(service.get(),
+            Channels.newInputStream(toServer.source()), Channels.newOutputStream(toClient.sink()));
+        Launcher<IBaseLanguageServerExtensions> launcher = new Launcher.Builder<IBaseLanguageServerExtensions>()
+            .setLocalService(new ScriptedClient())
+            .setRemoteInterface(IBaseLanguageServerExtensions.class)
+            .setInput(Channels.newInputStream(toClient.source()))
+            .setOutput(Channels.newOutputStream(toServer.sink()))
+            .create();
+        launcher.startListening();
+        IBaseLanguageServerExtensions server = launcher.getRemoteProxy();
+
+        InitializeParams init = new InitializeParams();
+        init.setCapabilities(new ClientCapabilities());
+        init.setWorkspaceFolders(Collections.emptyList());
+        measure("initialize", () -> server.initialize(init));
+        server.initialized(new InitializedParams());
+
+        TextDocumentService docs = server.getTextDocumentService();
+        String uri = document.file.toUri().toString();
+        TextDocumentIdentifier id = new TextDocumentIdentifier(uri);
+        docs.didOpen(new DidOpenTextDocumentParams(new TextDocumentItem(uri, document.languageId, 1, document.contents)));
+        measure("first textDocument/semanticTokens/full", () -> docs.semanticTokensFull(new SemanticTokensParams(id)));
+        measure("first textDocument/documentSymbol", () -> docs.documentSymbol(new DocumentSymbolParams(id)));
+
+        Random rand = new Random(42);
+        int version = 1;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int c = 0; c < CHANGES; c++) {
+                // typing on a line the requests don't point into, so their positions stay valid
+                Position at = new Position(document.editLine, 0);
+                docs.didChange(new DidChangeTextDocumentParams(new VersionedTextDocumentIdentifier(uri, ++version),
+                    Collections.singletonList(new TextDocumentContentChangeEvent(new Range(at, at), 0, " "))));
+            }
+            Position use = document.uses.get(rand.nextInt(document.uses.size()));
+            measure("textDocument/hover", () -> docs.hover(new HoverParams(id, use)));
+            measure("textDocument/definition", () -> docs.definition(new DefinitionParams(id, use)));
+            measure("textDocument/semanticTokens/full", () -> docs.semanticTokensFull(new SemanticTokensParams(id)));
+            measure("textDocument/documentSymbol", () -> docs.documentSymbol(new DocumentSymbolParams(id)));
+        }
+
+        measure("shutdown", server::shutdown);
+        server.exit();
+        toServer.sink().close();
+        toClient.sink().close();
+    }
+
+    private <T> void measure(String method, Supplier<CompletableFuture<T>> request) throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            request.get().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            latencies.computeIfAbsent(method, k -> new ArrayList<>()).add(System.nanoTime() - start);
+        }
+        catch (ExecutionException | TimeoutException e) {
+            failures.merge(method, 1, Integer::sum);
+        }
+    }
+
+    private void report(String title) {
+        System.out.println(title);
+        System.out.printf("%-40s %6s %10s %10s %10s %10s %8s%n", "method", "count", "p50 (ms)", "p95 (ms)", "p99 (ms)", "max (ms)", "failed");
+        for (Map.Entry<String, List<Long>> e : latencies.entrySet()) {
+            List<Long> times = e.getValue();
+            Collections.sort(times);
+            System.out.printf("%-40s %6d", e.getKey(), times.size());
+            for (int p : PERCENTILES) {
+                System.out.printf(" %10.2f", millis(percentile(times, p)));
+            }
+            System.out.printf(" %10.2f %8d%n", millis(times.get(times.size() - 1)), failures.getOrDefault(e.getKey(), 0));
+        }
+        for (Map.Entry<String, Integer> e : failures.entrySet()) {
+            if (!latencies.containsKey(e.getKey())) {
+                System.out.printf("%-40s %6d %10s %10s %10s %10s %8d%n", e.getKey(), 0, "-", "-", "-", "-", e.getValue());
+            }
+        }
+        System.out.println();
+    }
+
+    /** nearest-rank percentile of a sorted list */
+    private static long percentile(List<Long> sorted, int p) {
+        int rank = (int) Math.ceil((p / 100.0) * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    /**
+     * A generated file, with the positions of names that refer to a declaration
+     */
+    private static final class Document {
+        private final Path file;
+        private final String languageId;
+        private final String contents;
+        private final int editLine;
+        private final List<Position> uses;
+
+        private Document(Path file, String languageId, String contents, int editLine, List<Position> uses) {
+            this.file = file;
+            this.languageId = languageId;
+            this.contents = contents;
+            this.editLine = editLine;
+            this.uses = uses;
+        }
+
+        /** the module of the parser benchmark, hovering the {@code total} in each return statement */
+        static Document rascal(Path file, int functions) {
+            String contents = ParserBenchmark.generate(functions);
+            List<Position> uses = new ArrayList<>();
+            String[] lines = contents.split("\n", -1);
+            for (int l = 0; l < lines.length; l++) {
+                if (lines[l].startsWith("    return total;")) {
+                    uses.add(new Position(l, "    return ".length()));
+                }
+            }
+            // the empty line after the module header
+            return new Document(file, "rascalmpl", contents, 1, uses);
+        }
+
+        /** a Pico program that declares a chain of variables, hovering the variable each statement reads */
+        static Document pico(Path file, int variables) {
+            StringBuilder contents = new StringBuilder("begin\n\n  declare\n");
+            for (int v = 0; v < variables; v++) {
+                contents.append("    x").append(v).append(" : natural").append(v + 1 < variables ? ",\n" : ";\n");
+            }
+            List<Position> uses = new ArrayList<>();
+            int line = 3 + variables;
+            contents.append("  x0 := 1");
+            for (int v = 1; v < variables; v++) {
+                String assigned = "  x" + v + " := ";
+                uses.add(new Position(++line, assigned.length()));
+                contents.append(";\n").append(assigned).append('x').append(v - 1).append(" + 1");
+            }
+            contents.append("\nend\n");
+            return new Document(file, "parametric-rascalmpl", contents.toString(), 1, uses);
+        }
+    }
+
+    /**
+     * Ignores everything the server sends, except for requests that need an answer
+     */
+    private static final class ScriptedClient implements IBaseLanguageClient {
+        @Override
+        public void telemetryEvent(Object object) {
+            // not measured
+        }
+
+        @Override
+        public void publishDiagnostics(PublishDiagnosticsParams diagnostics) {
+            // not measured
+        }
+
+        @Override
+        public void showMessage(MessageParams messageParams) {
+            // not measured
+        }
+
+        @Override
+        public CompletableFuture<MessageActionItem> showMessageRequest(ShowMessageRequestParams requestParams) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void logMessage(MessageParams message) {
+            // not measured
+        }
+
+        @Override
+        public CompletableFuture<Void> createProgress(WorkDoneProgressCreateParams params) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void notifyProgress(ProgressParams params) {
+            // not measured
+        }
+
+        @Override
+        public void showContent(BrowseParameter uri) {
+            // not measured
+        }
+
+        @Override
+        public void receiveRegisterLanguage(LanguageParameter lang) {
+            // not measured
+        }
+
+        @Override
+        public void onDidChangeFile(FileChangeEvents changes) {
+            // not measured
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.rascal.lsp.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rascalmpl.vscode.lsp.util.locations.LineColumnOffsetMap;
+import org.rascalmpl.vscode.lsp.util.locations.impl.ArrayLineOffsetMap;
+
+/**
+ * Building the column map of a document, and translating columns with it.
+ * The wide variant puts an emoji on every fifth line, so the map isn't an identity map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineColumnOffsetMapBenchmark {
+    private static final int TRANSLATIONS = 10_000;
+
+    @Param({ "1000", "50000" })
+    public int lines;
+
+    @Param({ "false", "true" })
+    public boolean wide;
+
+    private String contents;
+    private LineColumnOffsetMap map;
+    private int[] cursorLines;
+    private int[] cursorColumns;
+
+    @Setup
+    public void generateDocument() {
+        Random rand = new Random(42);
+        StringBuilder result = new StringBuilder();
+        for (int l = 0; l < lines; l++) {
+            int length = rand.nextInt(80);
+            for (int c = 0; c < length; c++) {
+                if (wide && l % 5 == 0 && c % 20 == 10) {
+                    result.append("🎉");
+                }
+                else {
+                    result.append((char) ('a' + rand.nextInt(26)));
+                }
+            }
+            result.append('\n');
+        }
+        contents = result.toString();
+        map = ArrayLineOffsetMap.build(contents);
+        cursorLines = new int[TRANSLATIONS];
+        cursorColumns = new int[TRANSLATIONS];
+        for (int i = 0; i < TRANSLATIONS; i++) {
+            cursorLines[i] = rand.nextInt(lines);
+            cursorColumns[i] = rand.nextInt(80);
+        }
+    }
+
+    @Benchmark
+    public LineColumnOffsetMap build() {
+        return ArrayLineOffsetMap.build(contents);
+    }
+
+    /** translates {@value #TRANSLATIONS} random positions, both as start and as end of a range */
+    @Benchmark
+    public void translateColumn(Blackhole bh) {
+        for (int i = 0; i < TRANSLATIONS; i++) {
+            bh.consume(map.translateColumn(cursorLines[i], cursorColumns[i], false));
+            bh.consume(map.translateColumn(cursorLines[i], cursorColumns[i], true));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(LineColumnOffsetMapBenchmark.class.getSimpleName())
+            .build())
+            .run();
+    }
+}
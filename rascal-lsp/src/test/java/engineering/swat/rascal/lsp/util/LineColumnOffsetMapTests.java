@@ -27,11 +27,21 @@
 package engineering.swat.rascal.lsp.util;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.jupiter.api.Test;
+import org.rascalmpl.uri.URIUtil;
+import org.rascalmpl.vscode.lsp.util.Rope;
+import org.rascalmpl.vscode.lsp.util.locations.ColumnMaps;
 import org.rascalmpl.vscode.lsp.util.locations.LineColumnOffsetMap;
 import org.rascalmpl.vscode.lsp.util.locations.impl.ArrayLineOffsetMap;
 
+import io.usethesource.vallang.ISourceLocation;
+
 public class LineColumnOffsetMapTests {
     @Test
     void noUnicodeChars() {
@@ -39,6 +49,14 @@ public class LineColumnOffsetMapTests {
         assertEquals(2, map.translateColumn(0, 2, false));
     }
 
+    @Test
+    void identityWithoutSurrogates() {
+        assertTrue(ArrayLineOffsetMap.build("1234\n\u00e9\u4e2d").isIdentity());
+        assertTrue(ArrayLineOffsetMap.build(Rope.of("1234\n1234")).isIdentity());
+        assertFalse(ArrayLineOffsetMap.build(Rope.of("12🎉45")).isIdentity());
+        assertFalse(ArrayLineOffsetMap.build(new StringBuilder("12🎉45")).isIdentity());
+    }
+
     @Test
     void singleWideChar() {
         LineColumnOffsetMap map = ArrayLineOffsetMap.build("12🎉45\n1234🎉");
@@ -56,4 +74,65 @@ public class LineColumnOffsetMapTests {
         assertEquals(8, map.translateColumn(0, 6, false));
     }
 
+    @Test
+    void onlyNewlinesEndLines() {
+        // like the lines of a rope, so that the maps can be patched by its line numbers
+        LineColumnOffsetMap map = ArrayLineOffsetMap.build("a\r🎉b\r\n🎉");
+        assertEquals(5, map.translateColumn(0, 4, false));
+        assertEquals(3, map.translateColumn(1, 2, false));
+    }
+
+    @Test
+    void patchedLines() {
+        Rope before = Rope.of("12🎉45\n1234\n🎉🎉");
+        LineColumnOffsetMap map = ArrayLineOffsetMap.build(before);
+        // replace the middle line by two lines with a wide char
+        Rope after = before.replace(7, 11, "a🎉\nb");
+        map = ArrayLineOffsetMap.patch(map, after, 1, 1, 2);
+        assertEquals(4, map.translateColumn(1, 3, false));
+        assertEquals(1, map.translateColumn(2, 1, false));
+        assertEquals(5, map.translateColumn(3, 3, false));
+    }
+
+    @Test
+    void randomPatchesMatchBuild() {
+        Random rand = new Random(42);
+        String[] pieces = { "a", "bc", "🎉", "\n", "x🎉y", "\n🎉", "\r", "\r\n" };
+        StringBuilder initial = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            initial.append(pieces[rand.nextInt(pieces.length)]);
+        }
+        Rope contents = Rope.of(initial.toString());
+        LineColumnOffsetMap map = ArrayLineOffsetMap.build(contents);
+        for (int edit = 0; edit < 500; edit++) {
+            int startLine = rand.nextInt(contents.lineCount());
+            int endLine = Math.min(contents.lineCount() - 1, startLine + rand.nextInt(3));
+            int start = contents.lineStart(startLine);
+            int end = contents.offsetAt(endLine, rand.nextInt(10));
+            String text = pieces[rand.nextInt(pieces.length)] + pieces[rand.nextInt(pieces.length)];
+            Rope after = contents.replace(start, end, text);
+            int newEndLine = startLine + (int) text.chars().filter(c -> c == '\n').count();
+            map = ArrayLineOffsetMap.patch(map, after, startLine, endLine, newEndLine);
+            contents = after;
+
+            LineColumnOffsetMap expected = ArrayLineOffsetMap.build(contents);
+            for (int line = 0; line < contents.lineCount(); line++) {
+                for (int column = 0; column < 12; column++) {
+                    assertEquals(expected.translateColumn(line, column, false), map.translateColumn(line, column, false));
+                    assertEquals(expected.translateColumn(line, column, true), map.translateColumn(line, column, true));
+                }
+            }
+        }
+    }
+
+    @Test
+    void mapOfReplacedContentsIsNotServed() {
+        ISourceLocation file = URIUtil.correctLocation("project", "test", "/A.rsc");
+        AtomicReference<Rope> contents = new AtomicReference<>(Rope.of("1234"));
+        ColumnMaps maps = new ColumnMaps(l -> contents.get());
+        assertEquals(3, maps.get(file).translateColumn(0, 3, false));
+        // the contents change without the listener seeing the entry, like when the map was built concurrently
+        contents.set(Rope.of("🎉34"));
+        assertEquals(4, maps.get(file).translateColumn(0, 3, false));
+    }
 }
@@ -26,11 +26,23 @@
  */
 package engineering.swat.rascal.lsp.util;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.eclipse.lsp4j.Position;
 import org.eclipse.lsp4j.Range;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.rascalmpl.vscode.lsp.util.locations.impl.PackedRangeMap;
 import org.rascalmpl.vscode.lsp.util.locations.impl.TreeMapLookup;
 
 public class LookupTests {
@@ -121,4 +133,103 @@ public class LookupTests {
         assertSame("hit2", target.lookup(cursor(1,12)));
     }
 
+    @Test
+    public void testOverlappingRangesOnDifferentLines() {
+        // these used to compare as equal keys, so the inner range overwrote the value of the outer one
+        TreeMapLookup<String> target = new TreeMapLookup<>();
+        target.put(range(1, 0, 5, 0), "outer");
+        target.put(range(2, 0, 3, 0), "inner");
+        assertSame("outer", target.getExact(range(1, 0, 5, 0)));
+        assertSame("inner", target.getExact(range(2, 0, 3, 0)));
+        assertSame("outer", target.lookup(cursor(1, 0)));
+        assertSame("inner", target.lookup(range(2, 0, 3, 0)));
+    }
+
+    @Test
+    public void testPackedGroupsValues() {
+        PackedRangeMap<List<String>> target = PackedRangeMap.<String>builder()
+            .put(range(1, 5, 1, 8), "a")
+            .put(range(0, 0, 3, 0), "outer")
+            .put(range(1, 5, 1, 8), "b")
+            .buildGrouped();
+        assertEquals(2, target.size());
+        assertEquals(Arrays.asList("a", "b"), target.lookup(cursor(1, 6)));
+        assertEquals(Arrays.asList("outer"), target.lookup(cursor(1, 9)));
+        assertNull(target.lookup(cursor(3, 1)));
+        assertNull(PackedRangeMap.<String>empty().lookup(cursor(0, 0)));
+    }
+
+    /** the ways summaries are packed: a single value per range, or all values of a range in a list */
+    private enum Packing {
+        SINGLE {
+            @Override
+            Function<Range, @Nullable Range> build(PackedRangeMap.Builder<Range> builder) {
+                return builder.build()::lookup;
+            }
+        },
+        GROUPED {
+            @Override
+            Function<Range, @Nullable Range> build(PackedRangeMap.Builder<Range> builder) {
+                PackedRangeMap<List<Range>> target = builder.buildGrouped();
+                return query -> {
+                    List<Range> values = target.lookup(query);
+                    return values == null ? null : values.get(0);
+                };
+            }
+        };
+
+        abstract Function<Range, @Nullable Range> build(PackedRangeMap.Builder<Range> builder);
+    }
+
+    @ParameterizedTest
+    @EnumSource(Packing.class)
+    public void testPackedRandomOverlaps(Packing packing) {
+        Random rand = new Random(42);
+        for (int round = 0; round < 100; round++) {
+            PackedRangeMap.Builder<Range> builder = PackedRangeMap.builder();
+            List<Range> ranges = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                int startLine = rand.nextInt(50);
+                int startColumn = rand.nextInt(20);
+                int endLine = startLine + rand.nextInt(5);
+                int endColumn = endLine == startLine ? startColumn + rand.nextInt(20) : rand.nextInt(20);
+                Range r = range(startLine, startColumn, endLine, endColumn);
+                ranges.add(r);
+                builder.put(r, r);
+            }
+            Function<Range, @Nullable Range> target = packing.build(builder);
+            for (int i = 0; i < 1000; i++) {
+                int line = rand.nextInt(55);
+                int column = rand.nextInt(25);
+                Range query = rand.nextBoolean() ? cursor(line, column) : range(line, column, line, column + rand.nextInt(5));
+                assertEquals(bruteForce(ranges, query), target.apply(query), "lookup of " + query);
+            }
+        }
+    }
+
+    /** the range that starts last, and of those ends first */
+    private static Range bruteForce(List<Range> ranges, Range query) {
+        Range best = null;
+        for (Range r : ranges) {
+            if (compare(r.getStart(), query.getStart()) <= 0 && compare(r.getEnd(), query.getEnd()) >= 0) {
+                if (best == null) {
+                    best = r;
+                }
+                else {
+                    int c = compare(r.getStart(), best.getStart());
+                    if (c > 0 || (c == 0 && compare(r.getEnd(), best.getEnd()) < 0)) {
+                        best = r;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int compare(Position a, Position b) {
+        if (a.getLine() != b.getLine()) {
+            return Integer.compare(a.getLine(), b.getLine());
+        }
+        return Integer.compare(a.getCharacter(), b.getCharacter());
+    }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.rascal.lsp.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.rascalmpl.uri.URIUtil;
+import org.rascalmpl.vscode.lsp.rascal.model.ModuleGraph;
+import org.rascalmpl.vscode.lsp.rascal.model.ModuleHeader;
+
+import io.usethesource.vallang.ISourceLocation;
+
+public class ModuleGraphTests {
+    private static ISourceLocation file(String module) {
+        return URIUtil.correctLocation("project", "test", "/" + module + ".rsc");
+    }
+
+    private static void add(ModuleGraph graph, String module, String... imports) {
+        graph.update(file(module), module, new HashSet<>(Arrays.asList(imports)));
+    }
+
+    private static List<Set<ISourceLocation>> layers(String... layers) {
+        return Arrays.stream(layers)
+            .map(l -> Arrays.stream(l.split(",")).map(ModuleGraphTests::file).collect(Collectors.toSet()))
+            .collect(Collectors.toList());
+    }
+
+    private static List<Set<ISourceLocation>> dependents(ModuleGraph graph, String module) {
+        return graph.dependents(file(module)).stream()
+            .map(HashSet::new)
+            .collect(Collectors.toList());
+    }
+
+    @Test
+    void transitiveDependentsInLayers() {
+        ModuleGraph graph = new ModuleGraph();
+        add(graph, "A");
+        add(graph, "B", "A");
+        add(graph, "C", "A", "B");
+        add(graph, "D", "C");
+        add(graph, "E", "B");
+        add(graph, "F");
+        assertEquals(layers("B", "C,E", "D"), dependents(graph, "A"));
+        assertEquals(layers("D"), dependents(graph, "C"));
+        assertEquals(Collections.emptyList(), dependents(graph, "F"));
+    }
+
+    @Test
+    void cyclesAreCheckedTogetherInTopologicalOrder() {
+        ModuleGraph graph = new ModuleGraph();
+        add(graph, "A");
+        add(graph, "B", "A", "C");
+        add(graph, "C", "B");
+        add(graph, "D", "A");
+        // E is not part of the cycle, but imports it
+        add(graph, "E", "C");
+        // a cycle that imports an earlier layer
+        add(graph, "F", "E", "G");
+        add(graph, "G", "F");
+        add(graph, "H", "G");
+        assertEquals(layers("B,C,D", "E", "F,G", "H"), dependents(graph, "A"));
+        assertEquals(layers("B,E", "F,G", "H"), dependents(graph, "C"));
+    }
+
+    @Test
+    void updatesReplaceImports() {
+        ModuleGraph graph = new ModuleGraph();
+        add(graph, "A");
+        add(graph, "B", "A");
+        add(graph, "C", "B");
+        add(graph, "C", "A");
+        assertEquals(layers("B,C"), dependents(graph, "A"));
+        graph.remove(file("B"));
+        assertEquals(layers("C"), dependents(graph, "A"));
+    }
+
+    @Test
+    void headerIsScannedWithoutParsing() throws IOException {
+        ModuleHeader header = ModuleHeader.scan(new StringReader(
+            "@doc{ import NotInDoc; {nested} }\n"
+            + "module lang::\\syntax::Example[&T]\n"
+            + "// import NotInComment;\n"
+            + "import List;\n"
+            + "extend util::Maybe;\n"
+            + "import Resource = |file:///tmp;x|;\n"
+            + "syntax A = \";\" | [;\\]] A;\n"
+            + "import Set;\n"
+            + "public int f() { import NotInBody; }\n"
+            + "import NotInHeader;\n"));
+        assertNotNull(header);
+        assertEquals("lang::syntax::Example", header.getName());
+        assertEquals(new HashSet<>(Arrays.asList("List", "util::Maybe", "Set")), header.getImports());
+        assertNull(ModuleHeader.scan(new StringReader("int f() = 1;")));
+    }
+}
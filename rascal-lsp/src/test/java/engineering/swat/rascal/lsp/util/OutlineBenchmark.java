@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.rascal.lsp.util;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.lsp4j.DocumentSymbol;
+import org.eclipse.lsp4j.SymbolInformation;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rascalmpl.uri.URIUtil;
+import org.rascalmpl.values.IRascalValueFactory;
+import org.rascalmpl.vscode.lsp.util.Outline;
+import org.rascalmpl.vscode.lsp.util.locations.LineColumnOffsetMap;
+import org.rascalmpl.vscode.lsp.util.locations.impl.ArrayLineOffsetMap;
+
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IList;
+import io.usethesource.vallang.IListWriter;
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.type.Type;
+import io.usethesource.vallang.type.TypeFactory;
+import io.usethesource.vallang.type.TypeStore;
+
+/**
+ * Converting an outline of util::IDE DocumentSymbols to LSP DocumentSymbols: a function per 10 lines,
+ * each with a variable per line as children. The document is the one of {@link SummaryBridgeBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutlineBenchmark {
+    private static final IRascalValueFactory VF = IRascalValueFactory.getInstance();
+
+    @Param({ "100", "2000" })
+    public int functions;
+
+    @Param({ "false", "true" })
+    public boolean wide;
+
+    private IList symbols;
+    private LineColumnOffsetMap columns;
+
+    @Setup
+    public void generateOutline() {
+        TypeFactory tf = TypeFactory.getInstance();
+        TypeStore store = new TypeStore();
+        Type kindType = tf.abstractDataType(store, "DocumentSymbolKind");
+        IConstructor function = VF.constructor(tf.constructor(store, kindType, "function"));
+        IConstructor variable = VF.constructor(tf.constructor(store, kindType, "variable"));
+        Type symbolCons = tf.constructor(store, tf.abstractDataType(store, "DocumentSymbol"), "symbol",
+            tf.stringType(), "name", kindType, "kind", tf.sourceLocationType(), "range");
+
+        ISourceLocation file = URIUtil.rootLocation("benchmark");
+        IListWriter result = VF.listWriter();
+        for (int f = 0; f < functions; f++) {
+            int first = f * 10;
+            IListWriter children = VF.listWriter();
+            for (int line = first + 1; line < first + 9; line++) {
+                ISourceLocation decl = SummaryBridgeBenchmark.location(file, line, 4, 20);
+                Map<String, IValue> kw = new HashMap<>();
+                kw.put("selection", SummaryBridgeBenchmark.location(file, line, 8, 12));
+                kw.put("detail", VF.string("int"));
+                children.append(VF.constructor(symbolCons, new IValue[] { VF.string("v" + line), variable, decl }, kw));
+            }
+            int lineLength = SummaryBridgeBenchmark.LINE_LENGTH + 1;
+            ISourceLocation range = VF.sourceLocation(file, first * lineLength, (10 * lineLength) - 1, first + 1, first + 10, 0, 1);
+            Map<String, IValue> kw = new HashMap<>();
+            kw.put("selection", SummaryBridgeBenchmark.location(file, first, 4, 10));
+            kw.put("children", children.done());
+            result.append(VF.constructor(symbolCons, new IValue[] { VF.string("f" + f), function, range }, kw));
+        }
+        symbols = result.done();
+        columns = ArrayLineOffsetMap.build(SummaryBridgeBenchmark.document(functions * 10, wide));
+    }
+
+    @Benchmark
+    public List<Either<SymbolInformation, DocumentSymbol>> buildOutline() {
+        return Outline.buildOutline(symbols, columns);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(OutlineBenchmark.class.getSimpleName())
+            .build())
+            .run();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.rascal.lsp.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rascalmpl.uri.URIUtil;
+import org.rascalmpl.values.parsetrees.ITree;
+import org.rascalmpl.vscode.lsp.rascal.RascalLanguageServices;
+
+import io.usethesource.vallang.ISourceLocation;
+
+/**
+ * Parse throughput of the Rascal parser for generated modules of different sizes.
+ *
+ * Not part of the test suite, run the main method by hand (after test-compile), or all benchmarks via {@code mvn -Pbenchmark test}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+    /** amount of functions in the module, roughly 8 lines each */
+    @Param({ "10", "200", "2000" })
+    public int functions;
+
+    private char[] module;
+    private final ISourceLocation loc = URIUtil.rootLocation("benchmark");
+
+    @Setup
+    public void generateModule() {
+        module = generate(functions).toCharArray();
+    }
+
+    @Benchmark
+    public ITree parse() {
+        return RascalLanguageServices.parseContents(loc, module);
+    }
+
+    static String generate(int functions) {
+        StringBuilder result = new StringBuilder("module Benchmark\n\nimport IO;\nimport List;\n\n");
+        result.append("data Shape = circle(int radius) | rect(int width, int height);\n\n");
+        for (int f = 0; f < functions; f++) {
+            result.append("@doc{function ").append(f).append("}\n");
+            result.append("int area").append(f).append("(list[Shape] shapes, int factor) {\n");
+            result.append("    int total = 0;\n");
+            result.append("    for (s <- shapes) {\n");
+            result.append("        switch (s) {\n");
+            result.append("            case circle(r): total += 3 * r * r * factor;\n");
+            result.append("            case rect(w, h): total += w * h * ").append(f).append(";\n");
+            result.append("        }\n");
+            result.append("    }\n");
+            result.append("    println(\"area <total>\");\n");
+            result.append("    return total;\n");
+            result.append("}\n\n");
+        }
+        return result.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(ParserBenchmark.class.getSimpleName())
+            .build())
+            .run();
+    }
+}
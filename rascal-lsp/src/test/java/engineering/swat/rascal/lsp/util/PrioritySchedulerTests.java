@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.rascal.lsp.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.rascalmpl.vscode.lsp.util.concurrent.PriorityScheduler;
+import org.rascalmpl.vscode.lsp.util.concurrent.PriorityScheduler.Priority;
+
+public class PrioritySchedulerTests {
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutdown() {
+        threads.shutdownNow();
+    }
+
+    @Test
+    void backgroundBeforeBatch() throws InterruptedException {
+        PriorityScheduler scheduler = new PriorityScheduler(threads, 1);
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        List<String> order = new ArrayList<>();
+
+        scheduler.background().execute(() -> await(blocker));
+        scheduler.batch().execute(() -> record(order, "batch1", done));
+        scheduler.background().execute(() -> record(order, "background1", done));
+        scheduler.batch().execute(() -> record(order, "batch2", done));
+        scheduler.background().execute(() -> record(order, "background2", done));
+
+        assertEquals(2, scheduler.getQueued(Priority.BATCH));
+        assertEquals(2, scheduler.getQueued(Priority.BACKGROUND));
+        assertEquals(1, scheduler.getRunning(Priority.BACKGROUND));
+
+        blocker.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("background1", "background2", "batch1", "batch2"), order);
+    }
+
+    @Test
+    void interactiveBypassesQueue() throws InterruptedException {
+        PriorityScheduler scheduler = new PriorityScheduler(threads, 1);
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch interactive = new CountDownLatch(1);
+
+        scheduler.batch().execute(() -> await(blocker));
+        scheduler.background().execute(() -> { });
+        scheduler.interactive().execute(interactive::countDown);
+
+        assertTrue(interactive.await(10, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.getQueued(Priority.BACKGROUND));
+        blocker.countDown();
+    }
+
+    @Test
+    void batchWaitsForInteractive() throws InterruptedException {
+        PriorityScheduler scheduler = new PriorityScheduler(threads, 4);
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch batch = new CountDownLatch(1);
+
+        scheduler.interactive().execute(() -> await(blocker));
+        scheduler.batch().execute(batch::countDown);
+
+        assertEquals(1, scheduler.getQueued(Priority.BATCH));
+        blocker.countDown();
+        assertTrue(batch.await(10, TimeUnit.SECONDS));
+    }
+
+    private static void record(List<String> order, String name, CountDownLatch done) {
+        synchronized (order) {
+            order.add(name);
+        }
+        done.countDown();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
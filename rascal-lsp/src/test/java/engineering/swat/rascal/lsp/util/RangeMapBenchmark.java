@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.rascal.lsp.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rascalmpl.vscode.lsp.util.locations.impl.PackedRangeMap;
+
+/**
+ * Building a {@link PackedRangeMap} from a summary-like set of ranges, and looking up cursors in it:
+ * functions spanning multiple lines, with statements and names nested inside.
+ * See {@link TreeMapLookupBenchmark} for the same ranges in a {@link org.rascalmpl.vscode.lsp.util.locations.impl.TreeMapLookup}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RangeMapBenchmark {
+    private static final int LOOKUPS = 10_000;
+
+    /** amount of functions, each function adds 17 ranges */
+    @Param({ "100", "10000", "100000" })
+    public int functions;
+
+    private List<Range> ranges;
+    private Range[] cursors;
+    private PackedRangeMap<Range> built;
+
+    @Setup
+    public void generateRanges() {
+        ranges = summaryRanges(new Random(42), functions);
+        built = build();
+        Random rand = new Random(13);
+        cursors = new Range[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            Position p = new Position(rand.nextInt(functions * 10), rand.nextInt(40));
+            cursors[i] = new Range(p, p);
+        }
+    }
+
+    @Benchmark
+    public PackedRangeMap<Range> build() {
+        PackedRangeMap.Builder<Range> builder = PackedRangeMap.builder();
+        for (Range r : ranges) {
+            builder.put(r, r);
+        }
+        return builder.build();
+    }
+
+    /** looks up {@value #LOOKUPS} random cursors */
+    @Benchmark
+    public void lookup(Blackhole bh) {
+        for (Range c : cursors) {
+            bh.consume(built.lookup(c));
+        }
+    }
+
+    /**
+     * @return ranges of functions of 10 lines each, with 8 statements per function that contain a name
+     */
+    static List<Range> summaryRanges(Random rand, int functions) {
+        List<Range> result = new ArrayList<>();
+        for (int f = 0; f < functions; f++) {
+            int first = f * 10;
+            result.add(range(first, 0, first + 9, 1));
+            for (int line = first + 1; line < first + 9; line++) {
+                result.add(range(line, 4, line, 30 + rand.nextInt(10)));
+                int name = 4 + rand.nextInt(20);
+                result.add(range(line, name, line, name + 1 + rand.nextInt(6)));
+            }
+        }
+        return result;
+    }
+
+    private static Range range(int startLine, int startColumn, int endLine, int endColumn) {
+        return new Range(new Position(startLine, startColumn), new Position(endLine, endColumn));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(RangeMapBenchmark.class.getSimpleName())
+            .build())
+            .run();
+    }
+}
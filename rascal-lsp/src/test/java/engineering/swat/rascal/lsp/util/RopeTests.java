@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.rascal.lsp.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.rascalmpl.vscode.lsp.util.Rope;
+
+public class RopeTests {
+    @Test
+    void simpleReplace() {
+        Rope r = Rope.of("hello world");
+        assertEquals("hello rascal", r.replace(6, 11, "rascal").toString());
+        assertEquals("hello world", r.toString());
+    }
+
+    @Test
+    void insertAndDelete() {
+        Rope r = Rope.of("abc");
+        assertEquals("aXbc", r.replace(1, 1, "X").toString());
+        assertEquals("ac", r.replace(1, 2, "").toString());
+        assertEquals("", r.replace(0, 3, "").toString());
+    }
+
+    @Test
+    void lineOffsets() {
+        Rope r = Rope.of("12\n345\n\n6");
+        assertEquals(4, r.lineCount());
+        assertEquals(0, r.offsetAt(0, 0));
+        assertEquals(4, r.offsetAt(1, 1));
+        assertEquals(7, r.offsetAt(2, 0));
+        assertEquals(8, r.offsetAt(3, 0));
+        // past the end of a line is clamped to the end of that line
+        assertEquals(6, r.offsetAt(1, 20));
+        assertEquals(9, r.offsetAt(10, 0));
+    }
+
+    @Test
+    void randomEditsOnLargeText() {
+        Random rand = new Random(42);
+        StringBuilder initial = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            initial.append(rand.nextInt(20) == 0 ? '\n' : (char)('a' + rand.nextInt(26)));
+        }
+        String expected = initial.toString();
+        Rope actual = Rope.of(expected);
+        for (int i = 0; i < 5_000; i++) {
+            int start = rand.nextInt(expected.length() + 1);
+            int end = Math.min(expected.length(), start + rand.nextInt(10));
+            String insert = rand.nextBoolean() ? "" : "x\ny";
+            expected = expected.substring(0, start) + insert + expected.substring(end);
+            actual = actual.replace(start, end, insert);
+        }
+        assertEquals(expected, actual.toString());
+        assertEquals(expected.length(), actual.length());
+        int line = 0;
+        for (int i = 0; i < expected.length(); i++) {
+            assertEquals(expected.charAt(i), actual.charAt(i));
+            if (expected.charAt(i) == '\n') {
+                line++;
+                assertEquals(i + 1, actual.lineStart(line));
+            }
+        }
+        assertEquals(line + 1, actual.lineCount());
+    }
+}
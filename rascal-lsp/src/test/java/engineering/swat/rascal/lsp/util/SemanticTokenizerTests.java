@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.rascal.lsp.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.SemanticTokens;
+import org.junit.jupiter.api.Test;
+import org.rascalmpl.library.lang.rascal.syntax.RascalParser;
+import org.rascalmpl.parser.Parser;
+import org.rascalmpl.parser.gtd.result.out.DefaultNodeFlattener;
+import org.rascalmpl.parser.uptr.UPTRNodeFactory;
+import org.rascalmpl.parser.uptr.action.NoActionExecutor;
+import org.rascalmpl.values.IRascalValueFactory;
+import org.rascalmpl.values.parsetrees.ITree;
+import org.rascalmpl.values.parsetrees.ProductionAdapter;
+import org.rascalmpl.values.parsetrees.TreeAdapter;
+import org.rascalmpl.vscode.lsp.util.CachingSemanticTokens;
+import org.rascalmpl.vscode.lsp.util.SemanticTokenizer;
+
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IString;
+import io.usethesource.vallang.IValue;
+
+/**
+ * Compares the tokenizer with a straightforward recursive walk over the same parse trees
+ */
+public class SemanticTokenizerTests {
+    private static final String SIMPLE_MODULE =
+        "module Simple\n"
+        + "\n"
+        + "import IO;\n"
+        + "\n"
+        + "// a comment\n"
+        + "int fib(int n) = n < 2 ? n : fib(n - 1) + fib(n - 2);\n"
+        + "\n"
+        + "void main() {\n"
+        + "    println(\"fib: <fib(10)>\");\n"
+        + "}\n";
+
+    private static final String MULTI_LINE_MODULE =
+        "module MultiLine\n"
+        + "\n"
+        + "/* a comment\n"
+        + "   that spans 😀 multiple\n"
+        + "   lines */\n"
+        + "str s = \"first line\n"
+        + "        'second 😀 line\";\n"
+        + "\n"
+        + "lexical Id = [a-z]+ !\\>> [a-z];\n"
+        + "syntax Exp = Id | Exp \"*\" Exp > Exp \"+\" Exp;\n";
+
+    private static ITree parse(String contents) throws URISyntaxException {
+        return new RascalParser().parse(Parser.START_MODULE, IRascalValueFactory.getInstance().sourceLocation("test", "", "/Test.rsc").getURI(),
+            contents.toCharArray(), new NoActionExecutor(), new DefaultNodeFlattener<>(), new UPTRNodeFactory(true));
+    }
+
+    @Test
+    void sameTokensAsRecursiveWalk() throws URISyntaxException {
+        assertSameTokens(parse(SIMPLE_MODULE));
+        assertSameTokens(parse(MULTI_LINE_MODULE));
+    }
+
+    @Test
+    void rangeIsSubsetOfFull() throws URISyntaxException {
+        ITree tree = parse(MULTI_LINE_MODULE);
+        List<Token> full = decode(new SemanticTokenizer().semanticTokensFull(tree));
+        for (int first = 0; first < 10; first++) {
+            for (int last = first; last < 10; last++) {
+                int firstLine = first;
+                int lastLine = last;
+                List<Token> expected = full.stream()
+                    .filter(t -> t.line >= firstLine && t.line <= lastLine)
+                    .collect(Collectors.toList());
+                Range range = new Range(new Position(first, 0), new Position(last, 0));
+                assertEquals(expected, decode(new SemanticTokenizer().semanticTokensRange(range, tree)), "range " + first + "-" + last);
+            }
+        }
+    }
+
+    @Test
+    void deeplyNestedTree() throws URISyntaxException {
+        ITree tree = parse(SIMPLE_MODULE);
+        IConstructor prod = TreeAdapter.getProduction(tree);
+        ITree nested = tree;
+        for (int i = 0; i < 100_000; i++) {
+            nested = IRascalValueFactory.getInstance().appl(prod, nested);
+        }
+        SemanticTokenizer tokenizer = new SemanticTokenizer();
+        assertEquals(decode(tokenizer.semanticTokensFull(tree)), decode(tokenizer.semanticTokensFull(nested)));
+    }
+
+    @Test
+    void cachedFullTokensCanBeDiffedAgain() throws URISyntaxException {
+        ITree tree = parse(SIMPLE_MODULE);
+        CachingSemanticTokens tokens = new CachingSemanticTokens(new SemanticTokenizer());
+        SemanticTokens first = tokens.semanticTokensFull(tree);
+        // the client diffs against the first result, after which the tokenizer forgets its id
+        assertTrue(tokens.semanticTokensFullDelta(first.getResultId(), parse(MULTI_LINE_MODULE)).isRight());
+        // the full tokens of the tree are served from the cache, and a delta against them is still possible
+        SemanticTokens again = tokens.semanticTokensFull(tree);
+        assertEquals(first.getData(), again.getData());
+        assertTrue(tokens.semanticTokensFullDelta(again.getResultId(), parse(MULTI_LINE_MODULE)).isRight());
+    }
+
+    private static void assertSameTokens(ITree tree) {
+        SemanticTokenizer tokenizer = new SemanticTokenizer();
+        List<String> legend = tokenizer.options().getLegend().getTokenTypes();
+        List<Token> actual = decode(tokenizer.semanticTokensFull(tree));
+        List<Token> expected = new RecursiveWalk().collect(tree);
+
+        assertEquals(expected.size(), actual.size(), "number of tokens");
+        // the reference walk reports category names, which the tokenizer maps to the legend
+        Map<String, String> categories = new HashMap<>();
+        for (int i = 0; i < expected.size(); i++) {
+            Token e = expected.get(i);
+            Token a = actual.get(i);
+            assertEquals(e.withoutCategory(), a.withoutCategory(), "token " + i);
+            String mapped = categories.computeIfAbsent(e.category, k -> a.category);
+            assertEquals(mapped, a.category, "category " + e.category + " of token " + i);
+            if (legend.contains(e.category)) {
+                assertEquals(e.category, a.category, "token " + i);
+            }
+        }
+    }
+
+    private static List<Token> decode(SemanticTokens tokens) {
+        List<String> legend = new SemanticTokenizer().options().getLegend().getTokenTypes();
+        List<Integer> data = tokens.getData();
+        List<Token> result = new ArrayList<>(data.size() / 5);
+        int line = 0;
+        int column = 0;
+        for (int i = 0; i < data.size(); i += 5) {
+            if (data.get(i) != 0) {
+                column = 0;
+            }
+            line += data.get(i);
+            column += data.get(i + 1);
+            result.add(new Token(line, column, data.get(i + 2), legend.get(data.get(i + 3))));
+        }
+        return result;
+    }
+
+    private static final class Token {
+        private final int line;
+        private final int column;
+        private final int length;
+        private final String category;
+
+        Token(int line, int column, int length, String category) {
+            this.line = line;
+            this.column = column;
+            this.length = length;
+            this.category = category;
+        }
+
+        String withoutCategory() {
+            return line + ":" + column + "+" + length;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Token)) {
+                return false;
+            }
+            Token other = (Token) obj;
+            return withoutCategory().equals(other.withoutCategory()) && category.equals(other.category);
+        }
+
+        @Override
+        public int hashCode() {
+            return withoutCategory().hashCode() + 31 * category.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return withoutCategory() + " " + category;
+        }
+    }
+
+    /**
+     * The original recursive token collector, visiting every character of the tree
+     */
+    private static final class RecursiveWalk {
+        private final List<Token> tokens = new ArrayList<>();
+        private int line = 0;
+        private int column = 0;
+        private int startLine;
+        private int startColumn;
+
+        List<Token> collect(ITree tree) {
+            collect(tree, null);
+            return tokens;
+        }
+
+        private void collect(ITree tree, String currentCategory) {
+            if (tree.isAppl()) {
+                collectAppl(tree, currentCategory);
+            }
+            else if (tree.isAmb()) {
+                collect((ITree) TreeAdapter.getAlternatives(tree).iterator().next(), currentCategory);
+            }
+            else if (tree.isChar()) {
+                collectChar(tree, currentCategory);
+            }
+        }
+
+        private void collectAppl(ITree tree, String currentCategory) {
+            String category = currentCategory == null ? categoryOf(tree) : null;
+            if (category != null) {
+                startLine = line;
+                startColumn = column;
+            }
+            for (IValue child : TreeAdapter.getArgs(tree)) {
+                collect((ITree) child, currentCategory != null ? currentCategory : category);
+            }
+            if (category != null) {
+                add(category);
+            }
+        }
+
+        private void collectChar(ITree ch, String currentCategory) {
+            int c = TreeAdapter.getCharacter(ch);
+            if (c == '\n') {
+                if (currentCategory != null) {
+                    add(currentCategory);
+                }
+                line++;
+                column = 0;
+                startLine = line;
+                startColumn = 0;
+            }
+            else {
+                column += Character.charCount(c);
+            }
+        }
+
+        private void add(String category) {
+            tokens.add(new Token(startLine, startColumn, column - startColumn, category));
+        }
+
+        private static String categoryOf(ITree tree) {
+            IValue catAnno = tree.asWithKeywordParameters().getParameter("category");
+            if (catAnno != null) {
+                return ((IString) catAnno).getValue();
+            }
+            IConstructor prod = TreeAdapter.getProduction(tree);
+            if (ProductionAdapter.isDefault(prod) && ProductionAdapter.getCategory(prod) != null) {
+                return ProductionAdapter.getCategory(prod);
+            }
+            if (ProductionAdapter.isLiteral(prod) || ProductionAdapter.isCILiteral(prod)) {
+                for (IValue child : TreeAdapter.getArgs(tree)) {
+                    int c = TreeAdapter.getCharacter((ITree) child);
+                    if (c != '-' && !Character.isJavaIdentifierPart(c)) {
+                        return null;
+                    }
+                }
+                return "keyword.other";
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.rascal.lsp.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.lsp4j.Position;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rascalmpl.uri.URIUtil;
+import org.rascalmpl.values.IRascalValueFactory;
+import org.rascalmpl.vscode.lsp.rascal.model.SummaryBridge;
+import org.rascalmpl.vscode.lsp.util.locations.ColumnMaps;
+
+import io.usethesource.vallang.IConstructor;
+import io.usethesource.vallang.IMapWriter;
+import io.usethesource.vallang.ISetWriter;
+import io.usethesource.vallang.ISourceLocation;
+import io.usethesource.vallang.IValue;
+import io.usethesource.vallang.type.Type;
+import io.usethesource.vallang.type.TypeFactory;
+import io.usethesource.vallang.type.TypeStore;
+
+/**
+ * Translating the locations of a summary to LSP ranges, for a generated summary of functions of 10 lines,
+ * with on every line a use that refers to the name of the function.
+ * The wide variant starts every line with an emoji, so every column has to be translated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SummaryBridgeBenchmark {
+    /** length of a generated line in code points, excluding the newline */
+    static final int LINE_LENGTH = 60;
+
+    private static final IRascalValueFactory VF = IRascalValueFactory.getInstance();
+
+    @Param({ "100", "2000" })
+    public int functions;
+
+    @Param({ "false", "true" })
+    public boolean wide;
+
+    private IConstructor summary;
+    private ColumnMaps columns;
+
+    @Setup
+    public void generateSummary() {
+        ISourceLocation file = URIUtil.rootLocation("benchmark");
+        String contents = document(functions * 10, wide);
+        columns = new ColumnMaps(l -> contents);
+        // the column map is cached between translations in the server as well
+        columns.get(file);
+
+        ISetWriter useDef = VF.setWriter();
+        IMapWriter locationTypes = VF.mapWriter();
+        for (int f = 0; f < functions; f++) {
+            int first = f * 10;
+            ISourceLocation def = location(file, first, 4, 10);
+            for (int line = first + 1; line < first + 10; line++) {
+                ISourceLocation use = location(file, line, 8, 14);
+                useDef.insert(VF.tuple(use, def));
+                locationTypes.put(use, VF.string("int(int)"));
+            }
+            locationTypes.put(def, VF.string("int(int)"));
+        }
+
+        TypeFactory tf = TypeFactory.getInstance();
+        TypeStore store = new TypeStore();
+        Type summaryCons = tf.constructor(store, tf.abstractDataType(store, "Summary"), "summary");
+        Map<String, IValue> kwParams = new HashMap<>();
+        kwParams.put("useDef", useDef.done());
+        kwParams.put("locationTypes", locationTypes.done());
+        summary = VF.constructor(summaryCons, new IValue[0], kwParams);
+    }
+
+    /**
+     * @param line 0-based line
+     * @return a location on a single line, as the type checker reports it (1-based lines, columns in code points)
+     */
+    static ISourceLocation location(ISourceLocation file, int line, int beginColumn, int endColumn) {
+        int offset = line * (LINE_LENGTH + 1);
+        return VF.sourceLocation(file, offset + beginColumn, endColumn - beginColumn, line + 1, line + 1, beginColumn, endColumn);
+    }
+
+    /**
+     * @return a document of lines of {@value #LINE_LENGTH} code points, optionally starting with an emoji
+     */
+    static String document(int lines, boolean wide) {
+        String ascii = String.join("", Collections.nCopies(LINE_LENGTH, "x"));
+        String line = wide ? "🎉" + ascii.substring(1) : ascii;
+        StringBuilder result = new StringBuilder();
+        for (int l = 0; l < lines; l++) {
+            result.append(line).append('\n');
+        }
+        return result.toString();
+    }
+
+    /** translation is lazy, so it's forced by the first lookup */
+    @Benchmark
+    public void translate(Blackhole bh) {
+        SummaryBridge bridge = new SummaryBridge(summary, columns);
+        Position cursor = new Position(1, 10);
+        bh.consume(bridge.getDefinition(cursor));
+        bh.consume(bridge.getTypeName(cursor));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(SummaryBridgeBenchmark.class.getSimpleName())
+            .build())
+            .run();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.rascal.lsp.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.lsp4j.Location;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rascalmpl.vscode.lsp.rascal.model.SummaryBridge;
+import org.rascalmpl.vscode.lsp.rascal.model.SummaryCache;
+import org.rascalmpl.vscode.lsp.util.locations.impl.PackedRangeMap;
+
+public class SummaryCacheTests {
+    private static final byte[] SOURCE = "module A\nimport B;\n".getBytes(StandardCharsets.UTF_8);
+
+    private static Range range(int line, int start, int end) {
+        return new Range(new Position(line, start), new Position(line, end));
+    }
+
+    private static SummaryBridge summary() {
+        Location def1 = new Location("file:///B.rsc", range(3, 2, 5));
+        Location def2 = new Location("file:///C.rsc", range(10, 0, 7));
+        PackedRangeMap<List<Location>> definitions = PackedRangeMap.<Location>builder()
+            .put(range(1, 7, 8), def1)
+            .put(range(2, 0, 4), def1)
+            .put(range(2, 0, 4), def2)
+            .buildGrouped();
+        PackedRangeMap<String> types = PackedRangeMap.<String>builder()
+            .put(range(1, 0, 20), "list[int]")
+            .put(range(1, 7, 8), "int")
+            .build();
+        return new SummaryBridge(definitions, types);
+    }
+
+    @Test
+    void roundTrip(@TempDir Path folder) {
+        SummaryCache cache = new SummaryCache(folder);
+        cache.write("A", SOURCE, summary());
+        SummaryBridge read = cache.read("A", SOURCE);
+        assertNotNull(read);
+        assertEquals(Collections.singletonList(new Location("file:///B.rsc", range(3, 2, 5))), read.getDefinition(new Position(1, 7)));
+        assertEquals(Arrays.asList(new Location("file:///B.rsc", range(3, 2, 5)), new Location("file:///C.rsc", range(10, 0, 7))),
+            read.getDefinition(new Position(2, 1)));
+        assertEquals("int", read.getTypeName(new Position(1, 7)));
+        assertEquals("list[int]", read.getTypeName(new Position(1, 12)));
+        assertEquals("", read.getTypeName(new Position(5, 0)));
+    }
+
+    @Test
+    void changedSourceIsNotRead(@TempDir Path folder) {
+        SummaryCache cache = new SummaryCache(folder);
+        cache.write("A", SOURCE, summary());
+        assertNull(cache.read("A", "module A\n".getBytes(StandardCharsets.UTF_8)));
+        assertNull(cache.read("B", SOURCE));
+    }
+
+    @Test
+    void newerSummaryReplacesOlder(@TempDir Path folder) {
+        SummaryCache cache = new SummaryCache(folder);
+        byte[] newSource = "module A\n".getBytes(StandardCharsets.UTF_8);
+        cache.write("A", SOURCE, summary());
+        cache.write("A", newSource, new SummaryBridge(PackedRangeMap.empty(), PackedRangeMap.empty()));
+        assertNull(cache.read("A", SOURCE));
+        SummaryBridge read = cache.read("A", newSource);
+        assertNotNull(read);
+        assertEquals(Collections.emptyList(), read.getDefinition(new Position(1, 7)));
+    }
+}
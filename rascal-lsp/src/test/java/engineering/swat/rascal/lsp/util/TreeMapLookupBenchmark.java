@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.rascal.lsp.util;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rascalmpl.vscode.lsp.util.locations.impl.TreeMapLookup;
+
+/**
+ * Filling a {@link TreeMapLookup} with summary-like ranges (see {@link RangeMapBenchmark}), and looking up cursors in it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeMapLookupBenchmark {
+    private static final int LOOKUPS = 10_000;
+
+    /** amount of functions, each function adds 17 ranges */
+    @Param({ "100", "10000", "100000" })
+    public int functions;
+
+    private List<Range> ranges;
+    private Range[] cursors;
+    private TreeMapLookup<Range> filled;
+
+    @Setup
+    public void generateRanges() {
+        ranges = RangeMapBenchmark.summaryRanges(new Random(42), functions);
+        filled = put();
+        Random rand = new Random(13);
+        cursors = new Range[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            Position p = new Position(rand.nextInt(functions * 10), rand.nextInt(40));
+            cursors[i] = new Range(p, p);
+        }
+    }
+
+    @Benchmark
+    public TreeMapLookup<Range> put() {
+        TreeMapLookup<Range> result = new TreeMapLookup<>();
+        for (Range r : ranges) {
+            result.put(r, r);
+        }
+        return result;
+    }
+
+    /** looks up {@value #LOOKUPS} random cursors */
+    @Benchmark
+    public void lookup(Blackhole bh) {
+        for (Range c : cursors) {
+            bh.consume(filled.lookup(c));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(TreeMapLookupBenchmark.class.getSimpleName())
+            .build())
+            .run();
+    }
+}
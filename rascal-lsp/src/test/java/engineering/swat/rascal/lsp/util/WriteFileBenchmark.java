@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2018-2021, NWO-I CWI and Swat.engineering
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package engineering.swat.rascal.lsp.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.OpenWriteParameters;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.WriteChunkParameters;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.WriteFileParameters;
+import org.rascalmpl.vscode.lsp.IRascalFileSystemServices.WriteHandle;
+
+/**
+ * Overwriting a file with a single writeFile request, compared to a chunked write of 4MB chunks
+ * (as the VS Code extension does for files larger than a chunk). The base64 encoding of the client is done in the setup.
+ * Run with {@code -prof gc} to compare the allocations as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class WriteFileBenchmark {
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /** file size in MB */
+    @Param({ "1", "10", "100" })
+    public int size;
+
+    private final IRascalFileSystemServices services = new IRascalFileSystemServices() {};
+    private Path folder;
+    private String uri;
+    private String content;
+    private List<String> chunks;
+
+    @Setup(Level.Trial)
+    public void generateContent() throws IOException {
+        byte[] bytes = new byte[size * 1024 * 1024];
+        new Random(42).nextBytes(bytes);
+        content = Base64.getEncoder().encodeToString(bytes);
+        chunks = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset += CHUNK_SIZE) {
+            chunks.add(Base64.getEncoder().encodeToString(Arrays.copyOfRange(bytes, offset, Math.min(bytes.length, offset + CHUNK_SIZE))));
+        }
+        folder = Files.createTempDirectory("rascal-lsp-benchmark");
+        Path file = folder.resolve("target.bin");
+        Files.write(file, new byte[0]);
+        uri = file.toUri().toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(folder.resolve("target.bin"));
+        Files.delete(folder);
+    }
+
+    @Benchmark
+    public void writeFile() {
+        services.writeFile(new WriteFileParameters(uri, content, false, true)).join();
+    }
+
+    @Benchmark
+    public void chunkedWrite() {
+        WriteHandle handle = services.openWrite(new OpenWriteParameters(uri, false, true)).join();
+        long offset = 0;
+        for (String chunk : chunks) {
+            services.writeChunk(new WriteChunkParameters(handle.getHandle(), offset, chunk)).join();
+            offset += CHUNK_SIZE;
+        }
+        services.commitWrite(handle).join();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(WriteFileBenchmark.class.getSimpleName())
+            .build())
+            .run();
+    }
+}
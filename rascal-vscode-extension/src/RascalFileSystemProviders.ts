@@ -35,6 +35,10 @@ export class RascalFileSystemProvider implements vscode.FileSystemProvider {
     private readonly _emitter = new vscode.EventEmitter<vscode.FileChangeEvent[]>();
     readonly onDidChangeFile: vscode.Event<vscode.FileChangeEvent[]> = this._emitter.event;
     private readonly protectedSchemes:string[] = ["file", "http", "https", "unknown"];
+    private readonly pageSize = 4 * 1024 * 1024;
+    private readonly parallelPages = 4;
+    private readonly listedStats = new Map<string, ListedStat>();
+    private readonly listedStatsTimeout = 2000;
 
     /**
      * Registers a single FileSystemProvider for every URI scheme that Rascal supports, except
@@ -45,8 +49,12 @@ export class RascalFileSystemProvider implements vscode.FileSystemProvider {
     constructor (client:LanguageClient) {
         this.client = client;
 
-        client.onNotification("rascal/filesystem/onDidChangeFile", (event:vscode.FileChangeEvent) => {
-            this._emitter.fire([event]);
+        // the server sends the changes of a watch in batches
+        client.onNotification("rascal/filesystem/onDidChangeFile", (batch:FileChangeEvents) => {
+            this._emitter.fire(batch.changes.map(change => {
+                this.listedStats.delete(change.uri);
+                return {type: change.type, uri: vscode.Uri.parse(change.uri)};
+            }));
         });
     }
 
@@ -72,30 +80,122 @@ export class RascalFileSystemProvider implements vscode.FileSystemProvider {
     }
 
     stat(uri: vscode.Uri): vscode.FileStat | Thenable<vscode.FileStat> {
-        return this.client.sendRequest<vscode.FileStat>("rascal/filesystem/stat", {uri: uri.toString()});
+        const key = uri.toString();
+        const listed = this.listedStats.get(key);
+        if (listed) {
+            this.listedStats.delete(key);
+            if (Date.now() - listed.time < this.listedStatsTimeout) {
+                return listed.stat;
+            }
+        }
+        return this.client.sendRequest<vscode.FileStat>("rascal/filesystem/stat", {uri: key});
     }
 
+    /**
+     * Lists the directory with the stats of the children in a single request. The explorer asks for the stat
+     * of every child right after listing, so these are kept around for a moment.
+     */
     readDirectory(uri: vscode.Uri): [string, vscode.FileType][] | Thenable<[string, vscode.FileType][]> {
-        return this.client.sendRequest<[string, vscode.FileType][]>("rascal/filesystem/readDirectory", {uri: uri.toString()});
+        return this.client.sendRequest<FileWithStat[]>("rascal/filesystem/readDirectoryWithStats", {uri: uri.toString()})
+            .then(children => {
+                const time = Date.now();
+                this.listedStats.forEach((listed, key) => {
+                    if (time - listed.time >= this.listedStatsTimeout) {
+                        this.listedStats.delete(key);
+                    }
+                });
+                return children.map(c => {
+                    this.listedStats.set(vscode.Uri.joinPath(uri, c.name).toString(), {
+                        stat: {type: c.type, ctime: c.ctime, mtime: c.mtime, size: c.size},
+                        time: time
+                    });
+                    return [c.name, c.type] as [string, vscode.FileType];
+                });
+            });
     }
 
     createDirectory(uri: vscode.Uri): void | Thenable<void> {
         return this.client.sendRequest<void>("rascal/filesystem/createDirectory", {uri: uri.toString()});
     }
 
-    readFile(uri: vscode.Uri): Uint8Array | Thenable<Uint8Array> {
-        return this.client.sendRequest<LocationContent>("rascal/filesystem/readFile", {uri: uri.toString()})
-            .then(content => content.content)
-            .then(str => Buffer.from(str, "base64"));
+    /**
+     * Reads the file in pages, so a large file is never a single json-rpc message.
+     * Most files fit in the first page, so they still take a single round trip.
+     */
+    async readFile(uri: vscode.Uri): Promise<Uint8Array> {
+        const first = await this.readPage(uri, 0);
+        if (first.eof) {
+            return first.bytes;
+        }
+        if (first.size < 0) {
+            // the server only knows the size at the end (no file channel for this scheme), so we read on until then
+            const pages = [first.bytes];
+            let offset = first.bytes.length;
+            let page = first;
+            while (!page.eof && page.bytes.length > 0) {
+                page = await this.readPage(uri, offset);
+                pages.push(page.bytes);
+                offset += page.bytes.length;
+            }
+            return Buffer.concat(pages);
+        }
+        const size = first.size;
+        const result = new Uint8Array(size);
+        result.set(first.bytes, 0);
+        const offsets: number[] = [];
+        for (let offset = first.bytes.length; offset < size; offset += this.pageSize) {
+            offsets.push(offset);
+        }
+        // a few pages in flight at the same time, other requests can be answered in between
+        let next = 0;
+        const reader = async () => {
+            while (next < offsets.length) {
+                const offset = offsets[next++];
+                const page = await this.readPage(uri, offset);
+                result.set(page.bytes.subarray(0, Math.min(page.bytes.length, size - offset)), offset);
+            }
+        };
+        await Promise.all(Array.from({length: this.parallelPages}, reader));
+        return result;
+    }
+
+    private readPage(uri: vscode.Uri, offset: number): Thenable<Page> {
+        return this.client.sendRequest<FileRangeContent>("rascal/filesystem/readFileRange", {uri: uri.toString(), offset: offset, length: this.pageSize})
+            .then(range => ({ bytes: Buffer.from(range.content, "base64"), size: range.size, eof: range.eof }));
     }
 
-    writeFile(uri: vscode.Uri, content: Uint8Array, options: { create: boolean; overwrite: boolean; }): void | Thenable<void> {
-        return this.client.sendRequest<void>("rascal/filesystem/writeFile", {
+    /**
+     * Small files are written in a single request, larger ones in pages to a temporary file
+     * that only replaces the file when all pages have been written.
+     */
+    async writeFile(uri: vscode.Uri, content: Uint8Array, options: { create: boolean; overwrite: boolean; }): Promise<void> {
+        if (content.length <= this.pageSize) {
+            return this.client.sendRequest<void>("rascal/filesystem/writeFile", {
+                uri: uri.toString(),
+                create:options.create,
+                overwrite:options.overwrite,
+                content: Buffer.from(content).toString("base64")
+            });
+        }
+        const write = await this.client.sendRequest<WriteHandle>("rascal/filesystem/openWrite", {
             uri: uri.toString(),
             create:options.create,
-            overwrite:options.overwrite,
-            content: Buffer.from(content).toString("base64")
+            overwrite:options.overwrite
         });
+        try {
+            for (let offset = 0; offset < content.length; offset += this.pageSize) {
+                await this.client.sendRequest<void>("rascal/filesystem/writeChunk", {
+                    handle: write.handle,
+                    offset: offset,
+                    content: Buffer.from(content.buffer, content.byteOffset + offset, Math.min(this.pageSize, content.length - offset)).toString("base64")
+                });
+            }
+            await this.client.sendRequest<void>("rascal/filesystem/commitWrite", write);
+        }
+        catch (e) {
+            await this.client.sendRequest<void>("rascal/filesystem/abortWrite", write);
+            throw e;
+        }
     }
 
     delete(uri: vscode.Uri, options: { recursive: boolean; }): void | Thenable<void> {
@@ -107,8 +207,37 @@ export class RascalFileSystemProvider implements vscode.FileSystemProvider {
     }
 }
 
-interface LocationContent {
+interface FileRangeContent {
     content: string;
+    size: number;
+    eof: boolean;
+}
+
+interface FileChangeEvents {
+    changes: {type: vscode.FileChangeType, uri: string}[];
+}
+
+interface FileWithStat {
+    name: string;
+    type: vscode.FileType;
+    ctime: number;
+    mtime: number;
+    size: number;
+}
+
+interface ListedStat {
+    stat: vscode.FileStat;
+    time: number;
+}
+
+interface WriteHandle {
+    handle: string;
+}
+
+interface Page {
+    bytes: Buffer;
+    size: number;
+    eof: boolean;
 }
 
 interface WatchParameters {